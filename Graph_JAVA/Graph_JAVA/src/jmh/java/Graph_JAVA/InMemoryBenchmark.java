@@ -0,0 +1,58 @@
+package Graph_JAVA;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InMemoryBenchmark {
+
+    @Param({"1", "2", "3"})
+    int body_atoms;
+
+    HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict;
+    CsrGraph graph;
+    List<Rule> rules;
+    PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.stdout = SyntheticDataset.silence_output();
+        SyntheticDataset dataset = SyntheticDataset.create(20000, 20, 200000, this.body_atoms, 20);
+        try {
+            this.triple_dict = RuleQuery.collect_materializations(dataset.materialization_path, dataset.train_path, dataset.valid_path, null);
+            this.graph = CsrGraph.from_triple_dict(this.triple_dict);
+            RuleParser rp = new RuleParser(dataset.rules_path, null, "", "", "\t");
+            rp.parse_rules_from_file(1.0);
+            this.rules = rp.rules;
+        } finally {
+            // Everything is in memory by now, so the files are not needed for the measurements.
+            dataset.delete();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tear_down(){
+        System.setOut(this.stdout);
+    }
+
+    @Benchmark
+    public CsrGraph build_graph(){
+        return CsrGraph.from_triple_dict(this.triple_dict);
+    }
+
+    @Benchmark
+    public double query_rules(){
+        double sum = 0;
+        for (Rule rule: this.rules)
+            sum += InMemoryRuleQuery.query_rule(rule, this.graph).get(1);
+        return sum;
+    }
+}
@@ -0,0 +1,64 @@
+package Graph_JAVA;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+// Store builds and embedded database start-up take seconds, so these run as single shots on a smaller graph.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class Neo4jBenchmark {
+
+    @Param({"1", "2", "3"})
+    int body_atoms;
+
+    Path database_root;
+    String database_folder_path;
+    ArrayList<ArrayList<Integer>> triples;
+    Rule rule;
+    PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.stdout = SyntheticDataset.silence_output();
+        SyntheticDataset dataset = SyntheticDataset.create(5000, 20, 50000, this.body_atoms, 1);
+        try {
+            HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict =
+                    RuleQuery.collect_materializations(dataset.materialization_path, dataset.train_path, dataset.valid_path, null);
+            RuleParser rp = new RuleParser(dataset.rules_path, null, "", "", "\t");
+            rp.parse_rules_from_file(1.0);
+            this.rule = rp.rules.get(0);
+            this.triples = RuleQuery.collect_materializations_for_rule(this.rule, triple_dict);
+        } finally {
+            dataset.delete();
+        }
+        this.database_root = Files.createTempDirectory("rule-benchmark-db");
+        this.database_folder_path = this.database_root + "/db/";
+        RuleQuery.create_neo4j_database(this.database_folder_path, this.triples);
+    }
+
+    @TearDown(Level.Trial)
+    public void tear_down() throws IOException {
+        System.setOut(this.stdout);
+        SyntheticDataset.delete_folder(this.database_root);
+    }
+
+    @Benchmark
+    public void create_neo4j_database() throws IOException {
+        RuleQuery.create_neo4j_database(this.database_folder_path, this.triples);
+    }
+
+    @Benchmark
+    public ArrayList<Double> query_rule(){
+        return RuleQuery.query_rule(this.rule, this.database_folder_path);
+    }
+}
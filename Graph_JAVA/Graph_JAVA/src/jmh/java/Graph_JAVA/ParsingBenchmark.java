@@ -0,0 +1,56 @@
+package Graph_JAVA;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParsingBenchmark {
+
+    @Param({"1", "2", "3"})
+    int body_atoms;
+
+    SyntheticDataset dataset;
+    HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict;
+    Rule rule;
+    PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.stdout = SyntheticDataset.silence_output();
+        this.dataset = SyntheticDataset.create(20000, 20, 200000, this.body_atoms, 10000);
+        this.triple_dict = RuleQuery.collect_materializations(this.dataset.materialization_path, this.dataset.train_path, this.dataset.valid_path, null);
+        RuleParser rp = new RuleParser(this.dataset.rules_path, null, "", "", "\t");
+        rp.parse_rules_from_file(1.0);
+        this.rule = rp.rules.get(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tear_down() throws IOException {
+        System.setOut(this.stdout);
+        this.dataset.delete();
+    }
+
+    @Benchmark
+    public RuleParser parse_rules_from_file() throws IOException {
+        RuleParser rp = new RuleParser(this.dataset.rules_path, null, "", "", "\t");
+        rp.parse_rules_from_file(1.0);
+        return rp;
+    }
+
+    @Benchmark
+    public HashMap<Integer, ArrayList<ArrayList<Integer>>> collect_materializations() throws IOException {
+        return RuleQuery.collect_materializations(this.dataset.materialization_path, this.dataset.train_path, this.dataset.valid_path, null);
+    }
+
+    @Benchmark
+    public ArrayList<ArrayList<Integer>> collect_materializations_for_rule(){
+        return RuleQuery.collect_materializations_for_rule(this.rule, this.triple_dict);
+    }
+}
@@ -0,0 +1,116 @@
+package Graph_JAVA;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class SyntheticDataset {
+
+    // A dataset folder in the layout RuleQuery.main reads: train2id.txt and valid2id.txt ("s o p" with a count header),
+    // materialization.tsv ("s p o") and rules.tsv (AMIE output). Generated with a fixed seed so every benchmark run sees
+    // the same data; -Dbenchmark.dataset=<folder> points the benchmarks at a real dataset in the same layout instead.
+    // Generated folders are removed by delete() when a trial ends; a real dataset is left alone.
+
+    static final long SEED = 97;
+
+    String folder;
+    String train_path;
+    String valid_path;
+    String materialization_path;
+    String rules_path;
+    boolean generated = false;
+
+    public SyntheticDataset(String folder){
+        this.folder = folder;
+        this.train_path = folder + "/train2id.txt";
+        this.valid_path = folder + "/valid2id.txt";
+        this.materialization_path = folder + "/materialization.tsv";
+        this.rules_path = folder + "/rules.tsv";
+    }
+
+    public static SyntheticDataset create(int n_entities, int n_relations, int n_triples, int body_atoms, int n_rules) throws IOException {
+        String sample = System.getProperty("benchmark.dataset");
+        if (sample != null)
+            return new SyntheticDataset(sample);
+
+        File folder = Files.createTempDirectory("rule-benchmark").toFile();
+        SyntheticDataset dataset = new SyntheticDataset(folder.getPath());
+        dataset.generated = true;
+        Random random = new Random(SEED);
+
+        write_dataset_triples(dataset.train_path, random, n_entities, n_relations, n_triples);
+        write_dataset_triples(dataset.valid_path, random, n_entities, n_relations, n_triples / 10);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dataset.materialization_path))){
+            for (int i = 0; i < n_triples; ++i)
+                writer.write(entity(random, n_entities) + "\t" + random.nextInt(n_relations) + "\t" + entity(random, n_entities) + "\n");
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dataset.rules_path))){
+            for (int i = 0; i < 14; ++i)
+                writer.write("Synthetic header line " + i + "\n");
+            writer.write("Rule\tHead Coverage\tStd Confidence\tPCA Confidence\tPositive Examples\tBody size\tPCA Body size\tFunctional variable\n");
+            for (int i = 0; i < n_rules; ++i)
+                writer.write(rule(random, n_relations, body_atoms) + "\t0.1\t0.1\t0.2\t10\t100\t50\t?" + (i % 2 == 0 ? "a" : "b") + "\n");
+            writer.write("Mining done in 0 ms\nTotal time 0 ms\n" + n_rules + " rules mined.\n");
+        }
+
+        return dataset;
+    }
+
+    public void delete() throws IOException {
+        if (this.generated)
+            delete_folder(new File(this.folder).toPath());
+    }
+
+    public static void delete_folder(Path folder) throws IOException {
+        if (Files.exists(folder))
+            MoreFiles.deleteRecursively(folder, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    public static PrintStream silence_output(){
+        /**
+         The query code prints progress for every rule, which would be timed along with it; the benchmarks swap
+         System.out for a stream that drops everything during a trial and put the returned one back when it ends.
+         @return the System.out to restore
+         */
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return stdout;
+    }
+
+    private static void write_dataset_triples(String path, Random random, int n_entities, int n_relations, int n_triples) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))){
+            writer.write(n_triples + "\n");
+            for (int i = 0; i < n_triples; ++i)
+                writer.write(entity(random, n_entities) + " " + entity(random, n_entities) + " " + random.nextInt(n_relations) + "\n");
+        }
+    }
+
+    private static int entity(Random random, int n_entities){
+        // Squaring a uniform draw skews ids towards 0, giving a few hub entities like real knowledge graphs have.
+        double u = random.nextDouble();
+        return (int) (u * u * n_entities);
+    }
+
+    private static String rule(Random random, int n_relations, int body_atoms){
+        String[] variables = {"?a", "?z", "?w", "?b"};
+        StringBuilder rule = new StringBuilder();
+        for (int i = 0; i < body_atoms; ++i){
+            String from = i == 0 ? "?a" : variables[i];
+            String to = i == body_atoms - 1 ? "?b" : variables[i + 1];
+            rule.append(random.nextInt(n_relations)).append('(').append(from).append(',').append(to).append(") ");
+        }
+        rule.append(" => ").append(random.nextInt(n_relations)).append("(?a,?b)");
+        return rule.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package Graph_JAVA;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+public class ApproximateRuleQuery {
+
+    // Estimates HC and PCA confidence from samples instead of the whole body join.
+    // HC is the fraction of head pairs that are body bindings, so it is estimated as a proportion over head pairs drawn
+    // without replacement and checked with LeapfrogJoin.exists. PCA is a ratio over the functional variable values of the
+    // head: for a value f, x_f counts its body bindings that are head pairs and y_f all its body bindings, and
+    // PCA = sum x / sum y, estimated from sampled values with the ratio estimator. Samples are drawn in batches until the
+    // half width of the confidence interval is at most max_error, or the whole population has been seen, which is exact.
+    static final int BATCH = 256;
+    static final int MIN_SAMPLES = 64;
+
+    public static ArrayList<Double> query_rule(Rule rule_to_query, CsrGraph graph, double max_error, double confidence){
+        /**
+         @param rule_to_query The rule to be queried.
+         @param graph The graph holding the materialized triples.
+         @param max_error the largest accepted half width of each confidence interval
+         @param confidence the confidence level of the intervals, e.g. 0.95
+         @return HC, PCA, then the lower and upper bounds of HC and of PCA
+         */
+        CsrRelation head = graph.relation(rule_to_query.head_atom.relationship);
+        LeapfrogJoin body = LeapfrogJoin.compile(rule_to_query.body_atoms, graph, rule_to_query.functional_variable);
+        boolean fv_is_subject = InMemoryRuleQuery.variable(rule_to_query.head_atom.variable1).equals(rule_to_query.functional_variable);
+        double z = z_score(confidence);
+        Random random = new Random(rule_to_query.id_print().hashCode());
+
+        double[] hc = estimate_hc(head, body, fv_is_subject, z, max_error, random);
+        double[] pca = estimate_pca(head, body, fv_is_subject, z, max_error, random);
+
+        System.out.println("\tApproximate HC: " + hc[0] + " [" + hc[1] + ", " + hc[2] + "] from " + (long) hc[3] + " head pairs");
+        System.out.println("\tApproximate PCA: " + pca[0] + " [" + pca[1] + ", " + pca[2] + "] from " + (long) pca[3] + " functional values");
+
+        ArrayList<Double> metrics = new ArrayList<>();
+        metrics.add(hc[0]);
+        metrics.add(pca[0]);
+        metrics.add(hc[1]);
+        metrics.add(hc[2]);
+        metrics.add(pca[1]);
+        metrics.add(pca[2]);
+        return metrics;
+    }
+
+    static double[] estimate_hc(CsrRelation head, LeapfrogJoin body, boolean fv_is_subject, double z, double max_error, Random random){
+        /**
+         @return the estimate, its lower and upper bound and the number of sampled head pairs
+         */
+        int population = head.edge_count();
+        if (population == 0)
+            return new double[]{Double.NaN, Double.NaN, Double.NaN, 0};
+
+        IndexSampler sampler = new IndexSampler(population, random);
+        long hits = 0;
+        int n = 0;
+        while (true){
+            for (int i = 0; i < BATCH && n < population; ++i, ++n){
+                int edge = sampler.next();
+                int s = head.out_keys[key_of_edge(head.out_offsets, edge)], o = head.out_targets[edge];
+                if (fv_is_subject ? body.exists(s, o) : body.exists(o, s))
+                    ++hits;
+            }
+            double p = hits * 1.0 / n;
+            if (n == population)
+                return new double[]{p, p, p, n};
+            double[] bounds = wilson(hits, n, z, population);
+            if (n >= MIN_SAMPLES && (bounds[1] - bounds[0]) / 2 <= max_error)
+                return new double[]{p, bounds[0], bounds[1], n};
+        }
+    }
+
+    static double[] estimate_pca(CsrRelation head, LeapfrogJoin body, boolean fv_is_subject, double z, double max_error, Random random){
+        /**
+         @return the estimate, its lower and upper bound and the number of sampled functional variable values
+         */
+        int[] values = fv_is_subject ? head.out_keys : head.in_keys;
+        int population = values.length;
+        if (population == 0)
+            return new double[]{Double.NaN, Double.NaN, Double.NaN, 0};
+
+        IndexSampler sampler = new IndexSampler(population, random);
+        // Sums of x, y, x^2, y^2 and xy over the sampled values.
+        double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+        int n = 0;
+        while (true){
+            for (int i = 0; i < BATCH && n < population; ++i, ++n){
+                int fv = values[sampler.next()];
+                long[] xy = {0, 0};
+                body.for_each_nfv(fv, (f, nfv) -> {
+                    xy[1]++;
+                    if (fv_is_subject ? head.contains(f, nfv) : head.contains(nfv, f))
+                        xy[0]++;
+                });
+                sx += xy[0];
+                sy += xy[1];
+                sxx += (double) xy[0] * xy[0];
+                syy += (double) xy[1] * xy[1];
+                sxy += (double) xy[0] * xy[1];
+            }
+            double r = sx / sy;
+            if (n == population)
+                return new double[]{r, r, r, n};
+            if (n < MIN_SAMPLES || sy == 0)
+                continue;
+
+            // Delta-method variance of the ratio estimator, with the finite population correction.
+            double mean_y = sy / n;
+            double residual = (sxx - 2 * r * sxy + r * r * syy) / (n - 1);
+            double variance = (1 - n * 1.0 / population) * residual / (n * mean_y * mean_y);
+            double half_width = z * Math.sqrt(Math.max(0, variance));
+            if (half_width <= max_error)
+                return new double[]{r, Math.max(0, r - half_width), Math.min(1, r + half_width), n};
+        }
+    }
+
+    static double[] wilson(long hits, int n, double z, int population){
+        // Wilson score interval, with the sample size inflated by the finite population correction.
+        double fpc = population > 1 ? (population - n) * 1.0 / (population - 1) : 0;
+        double effective_n = fpc > 0 ? n / fpc : Double.MAX_VALUE;
+        double p = hits * 1.0 / n;
+        double z2 = z * z / effective_n;
+        double center = (p + z2 / 2) / (1 + z2);
+        double half_width = z * Math.sqrt(p * (1 - p) / effective_n + z2 / (4 * effective_n)) / (1 + z2);
+        return new double[]{Math.max(0, center - half_width), Math.min(1, center + half_width)};
+    }
+
+    private static int key_of_edge(int[] offsets, int edge){
+        // The last key whose first edge is at or before edge.
+        int low = 0, high = offsets.length - 2;
+        while (low < high){
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= edge)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    static double z_score(double confidence){
+        // Two-sided standard normal quantile, Abramowitz and Stegun 26.2.23 (error below 4.5e-4).
+        double p = (1 - confidence) / 2;
+        double t = Math.sqrt(-2 * Math.log(p));
+        return t - (2.515517 + 0.802853 * t + 0.010328 * t * t) / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+    }
+
+    private static class IndexSampler {
+
+        // Fisher-Yates over 0 .. size-1 that only stores the swapped positions, so drawing k indices costs O(k) memory.
+        int size;
+        int drawn = 0;
+        HashMap<Integer, Integer> swaps = new HashMap<>();
+        Random random;
+
+        IndexSampler(int size, Random random){
+            this.size = size;
+            this.random = random;
+        }
+
+        int next(){
+            int j = this.drawn + this.random.nextInt(this.size - this.drawn);
+            int value = this.swaps.getOrDefault(j, j);
+            this.swaps.put(j, this.swaps.getOrDefault(this.drawn, this.drawn));
+            this.drawn++;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package Graph_JAVA;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class AsymmetryEvaluator {
+
+    // In-memory counterpart of RuleQuery.query_rule_asymmetry for NOT rules (body => NOT head). As with the per-rule
+    // stores, entities and degrees only count the relations of the rule; both are read from a DegreeIndex. The head count
+    // is the complement of the head relation over all entity pairs, n^2 - |head|, so no Cartesian product is built.
+
+    public static ArrayList<Double> query_rule_asymmetry(Rule rule_to_query, CsrGraph graph){
+        return query_rule_asymmetry(rule_to_query, graph, DegreeIndex.from_graph(graph));
+    }
+
+    public static ArrayList<Double> query_rule_asymmetry(Rule rule_to_query, CsrGraph graph, DegreeIndex degrees){
+        /**
+         @param rule_to_query the rule whose head is negated
+         @param graph the graph holding every relation used by the rule
+         @param degrees the degree index of graph, shared by every rule
+         @return An ArrayList of two Double values, representing the HC and PCA of the negated rule respectively.
+         */
+        int[] relations = rule_relations(rule_to_query);
+        long n_entities = degrees.entity_count(relations);
+
+        long support = get_support(rule_to_query, graph);
+        long heads = n_entities * n_entities - graph.relation(rule_to_query.head_atom.relationship).edge_count();
+        long pca = get_pca_denominator(rule_to_query, graph, degrees, relations, n_entities);
+
+        System.out.println("\tComputed support: " + support);
+        System.out.println("\tComputed tHeads: " + heads);
+        System.out.println("\tComputed PCA: " + pca);
+
+        System.out.println("\tHead coverage: " + (support * 1.0 / heads));
+        System.out.println("\tPCA confidence: " + (support * 1.0 / pca));
+
+        ArrayList<Double> metrics = new ArrayList<>();
+        metrics.add((1.0*support)/heads);
+        metrics.add((1.0*support)/pca);
+        return metrics;
+    }
+
+    public static long get_support(Rule rule_to_query, CsrGraph graph){
+        /**
+         @return the number of distinct (a, b) body bindings that are not a head triple
+         */
+        CsrRelation head = graph.relation(rule_to_query.head_atom.relationship);
+        boolean a_is_subject = InMemoryRuleQuery.variable(rule_to_query.head_atom.variable1).equals("a");
+        long[] support = {0};
+        LeapfrogJoin.compile(rule_to_query.body_atoms, graph, "a").for_each_pair((a, b) -> {
+            if (!(a_is_subject ? head.contains(a, b) : head.contains(b, a)))
+                ++support[0];
+        });
+        return support[0];
+    }
+
+    public static long get_pca_denominator(Rule rule_to_query, CsrGraph graph, DegreeIndex degrees, int[] relations, long n_entities){
+        /**
+         Counts the edges of the first body atom whose functional variable has a degree below the number of entities,
+         like RuleQuery.get_pca_denominator does over its rows. The degree is the in-degree if the functional variable
+         is b and the out-degree otherwise, summed over the rule's relations; it is looked up once per value.
+         */
+        Atom atom = rule_to_query.body_atoms.get(0);
+        String fv = rule_to_query.functional_variable;
+        String v1 = InMemoryRuleQuery.variable(atom.variable1);
+        String v2 = InMemoryRuleQuery.variable(atom.variable2);
+        if (!v1.equals(fv) && !v2.equals(fv))
+            return 0;
+        boolean fv_is_subject = v1.equals(fv);
+        boolean self_loop = v1.equals(v2);
+        boolean out = !fv.equals("b");
+
+        // The edges of the atom grouped by the value of the functional variable.
+        CsrRelation relation = graph.relation(atom.relationship);
+        int[] keys = fv_is_subject ? relation.out_keys : relation.in_keys;
+        int[] offsets = fv_is_subject ? relation.out_offsets : relation.in_offsets;
+        int[] targets = fv_is_subject ? relation.out_targets : relation.in_targets;
+
+        long pca_denom = 0;
+        for (int i = 0; i < keys.length; ++i){
+            long rows = offsets[i + 1] - offsets[i];
+            if (self_loop)
+                rows = Arrays.binarySearch(targets, offsets[i], offsets[i + 1], keys[i]) >= 0 ? 1 : 0;
+            if (rows > 0 && n_entities - degrees.degree(relations, keys[i], out) > 0)
+                pca_denom += rows;
+        }
+        return pca_denom;
+    }
+
+    static int[] rule_relations(Rule rule){
+        Set<Integer> relations = new LinkedHashSet<>();
+        for (Atom atom: rule.body_atoms)
+            relations.add(Integer.parseInt(atom.relationship));
+        relations.add(Integer.parseInt(rule.head_atom.relationship));
+        return relations.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,224 @@
+package Graph_JAVA;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public class BinaryTripleFile {
+
+    // Layout, little endian:
+    //   header     int magic, int version, int n_predicates, long n_triples
+    //   directory  n_predicates x (int predicate, long count, long offset)
+    //   columns    for each predicate, count subjects then count objects, all int32, starting at offset
+    // The predicate column is implicit: every triple of a block shares the predicate of its directory entry.
+    static final int MAGIC = 0x54525031;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+    static final int DIRECTORY_ENTRY_BYTES = 20;
+    static final int BUFFER_INTS = 2048;
+
+    public static boolean is_up_to_date(String binary_path, String... input_file_paths){
+        File binary = new File(binary_path);
+        if (!binary.exists())
+            return false;
+        for (String path: input_file_paths)
+            if (path != null && new File(path).lastModified() > binary.lastModified())
+                return false;
+        return true;
+    }
+
+    public static void convert(String binary_path, String materialization_path, String... dataset_paths) throws IOException {
+        /**
+         Converts TSV triples into the binary columnar format, grouped by predicate.
+         Inputs are read twice: once to count triples per predicate and once to write them in place, so memory use
+         does not depend on the number of triples. The file is written next to binary_path and moved over it once
+         complete, so an interrupted conversion never leaves a partial file under binary_path.
+         @param binary_path the file to write
+         @param materialization_path a materialization TSV with "s p o" lines and no header, or null
+         @param dataset_paths train2id/valid2id/test2id files with a count header and "s o p" lines; null entries are ignored
+         @throws IOException if an input cannot be read or the output cannot be written
+         */
+        Map<Integer, Long> counts = new TreeMap<>();
+        TripleVisitor counter = (s, p, o) -> counts.merge(p, 1L, Long::sum);
+        read_tsv(materialization_path, false, counter);
+        for (String path: dataset_paths)
+            read_tsv(path, true, counter);
+
+        int n_predicates = counts.size();
+        long n_triples = 0;
+        Map<Integer, long[]> positions = new HashMap<>();
+        long offset = HEADER_BYTES + (long) DIRECTORY_ENTRY_BYTES * n_predicates;
+        ByteBuffer head = ByteBuffer.allocate((int) offset).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(MAGIC).putInt(VERSION).putInt(n_predicates).putLong(0);
+
+        for (Map.Entry<Integer, Long> entry: counts.entrySet()){
+            long count = entry.getValue();
+            head.putInt(entry.getKey()).putLong(count).putLong(offset);
+            // Next write position of the subject and object column of this predicate.
+            positions.put(entry.getKey(), new long[]{offset, offset + 4 * count});
+            offset += 8 * count;
+            n_triples += count;
+        }
+        head.putLong(12, n_triples);
+        head.flip();
+
+        Path temporary = Paths.get(binary_path + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            while (head.hasRemaining())
+                channel.write(head);
+
+            Map<Integer, ColumnWriter> writers = new HashMap<>();
+            for (Map.Entry<Integer, long[]> entry: positions.entrySet())
+                writers.put(entry.getKey(), new ColumnWriter(channel, entry.getValue()));
+
+            TripleVisitor writer = (s, p, o) -> writers.get(p).add(s, o);
+            read_tsv(materialization_path, false, writer);
+            for (String path: dataset_paths)
+                read_tsv(path, true, writer);
+
+            for (ColumnWriter column: writers.values())
+                column.flush();
+        }
+        Files.move(temporary, Paths.get(binary_path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static MappedTriples load(String binary_path) throws IOException {
+        /**
+         Maps a file written by convert. Nothing is parsed or copied; columns are paged in on first access.
+         @param binary_path the binary triple file
+         @return per-predicate subject and object views
+         @throws IOException if the file cannot be mapped, is not a binary triple file or is shorter or longer than its header says
+         */
+        try (FileChannel channel = FileChannel.open(Paths.get(binary_path), StandardOpenOption.READ)){
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException("Not a binary triple file: " + binary_path);
+
+            int n_predicates = header.getInt(8);
+            long expected_bytes = HEADER_BYTES + (long) DIRECTORY_ENTRY_BYTES * n_predicates + 8 * header.getLong(12);
+            if (channel.size() != expected_bytes)
+                throw new IOException("Binary triple file " + binary_path + " has " + channel.size() + " bytes, its header expects " + expected_bytes);
+            ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    (long) DIRECTORY_ENTRY_BYTES * n_predicates).order(ByteOrder.LITTLE_ENDIAN);
+
+            int[] predicates = new int[n_predicates];
+            IntBuffer[] subjects = new IntBuffer[n_predicates];
+            IntBuffer[] objects = new IntBuffer[n_predicates];
+            for (int i = 0; i < n_predicates; ++i){
+                predicates[i] = directory.getInt();
+                long count = directory.getLong();
+                long offset = directory.getLong();
+                subjects[i] = map_column(channel, offset, count, binary_path);
+                objects[i] = map_column(channel, offset + 4 * count, count, binary_path);
+            }
+            return new MappedTriples(predicates, subjects, objects);
+        }
+    }
+
+    private static IntBuffer map_column(FileChannel channel, long offset, long count, String binary_path) throws IOException {
+        if (4 * count > Integer.MAX_VALUE)
+            throw new IOException("Predicate column larger than 2GB in " + binary_path);
+        MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4 * count);
+        return column.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    interface TripleVisitor {
+        void visit(int s, int p, int o) throws IOException;
+    }
+
+    static void read_tsv(String path, boolean openke_layout, TripleVisitor visitor) throws IOException {
+        /**
+         Streams the triples of a TSV file, accepting tab or space separators like RuleQuery.collect_materializations.
+         @param path the file to read, ignored if null
+         @param openke_layout true for train2id/valid2id/test2id files (count header, "s o p"), false for materializations ("s p o")
+         @param visitor receives every triple as (subject, predicate, object)
+         */
+        if (path == null)
+            return;
+
+        int[] fields = new int[3];
+        try (BufferedReader reader = new BufferedReader(new FileReader(path), 1 << 16)){
+            String line;
+            if (openke_layout)
+                reader.readLine();
+            while ((line = reader.readLine()) != null){
+                if (parse_ints(line, fields) < 3)
+                    continue;
+                if (openke_layout)
+                    visitor.visit(fields[0], fields[2], fields[1]);
+                else
+                    visitor.visit(fields[0], fields[1], fields[2]);
+            }
+        }
+    }
+
+    static int parse_ints(String line, int[] fields){
+        int n = 0, value = 0;
+        boolean in_number = false;
+        for (int i = 0; i < line.length() && n < fields.length; ++i){
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9'){
+                value = value * 10 + (c - '0');
+                in_number = true;
+            }
+            else if (in_number){
+                fields[n++] = value;
+                value = 0;
+                in_number = false;
+            }
+        }
+        if (in_number && n < fields.length)
+            fields[n++] = value;
+        return n;
+    }
+
+    private static class ColumnWriter {
+
+        FileChannel channel;
+        long[] positions;
+        ByteBuffer subjects = ByteBuffer.allocate(4 * BUFFER_INTS).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer objects = ByteBuffer.allocate(4 * BUFFER_INTS).order(ByteOrder.LITTLE_ENDIAN);
+
+        ColumnWriter(FileChannel channel, long[] positions){
+            this.channel = channel;
+            this.positions = positions;
+        }
+
+        void add(int s, int o) throws IOException {
+            this.subjects.putInt(s);
+            this.objects.putInt(o);
+            if (!this.subjects.hasRemaining())
+                this.flush();
+        }
+
+        void flush() throws IOException {
+            this.positions[0] = write(this.subjects, this.positions[0]);
+            this.positions[1] = write(this.objects, this.positions[1]);
+        }
+
+        private long write(ByteBuffer buffer, long position) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                position += this.channel.write(buffer, position);
+            buffer.clear();
+            return position;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Usage: BinaryTripleFile <binary_path> <materialization_path or -> [train2id/valid2id/test2id paths...]
+        String materialization_path = args[1].equals("-") ? null : args[1];
+        convert(args[0], materialization_path, Arrays.copyOfRange(args, 2, args.length));
+        System.out.println("Wrote " + load(args[0]).triple_count() + " triples to " + args[0]);
+    }
+}
@@ -0,0 +1,74 @@
+package Graph_JAVA;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+public class BodyPatternCache {
+
+    // Evaluated body bindings keyed by CanonicalForm.body_key, evicted least recently used first once the cached sets
+    // exceed max_bytes. Cached sets are shared between rules and must not be modified.
+    long max_bytes;
+    long used_bytes = 0;
+    LinkedHashMap<String, LongHashSet> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    AtomicLong hits = new AtomicLong();
+    AtomicLong misses = new AtomicLong();
+    AtomicLong evictions = new AtomicLong();
+
+    public BodyPatternCache(long max_bytes){
+        this.max_bytes = max_bytes;
+    }
+
+    public LongHashSet get_body_pairs(Rule rule, Supplier<LongHashSet> evaluate){
+        /**
+         Returns the cached body bindings of an equivalent body, or evaluates and caches them.
+         Concurrent misses on the same key may both evaluate; the results are identical and one of them is kept.
+         @param rule the rule whose body is looked up
+         @param evaluate computes the distinct (fv, nfv) body bindings on a miss
+         */
+        String key = CanonicalForm.body_key(rule.body_atoms, rule.functional_variable);
+        synchronized (this){
+            LongHashSet cached = this.entries.get(key);
+            if (cached != null){
+                this.hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        this.misses.incrementAndGet();
+        LongHashSet pairs = evaluate.get();
+        long bytes = entry_bytes(key, pairs);
+        if (bytes > this.max_bytes)
+            return pairs;
+
+        synchronized (this){
+            LongHashSet previous = this.entries.put(key, pairs);
+            if (previous != null)
+                this.used_bytes -= entry_bytes(key, previous);
+            this.used_bytes += bytes;
+
+            Iterator<Map.Entry<String, LongHashSet>> oldest = this.entries.entrySet().iterator();
+            while (this.used_bytes > this.max_bytes && oldest.hasNext()){
+                Map.Entry<String, LongHashSet> entry = oldest.next();
+                if (entry.getKey().equals(key))
+                    continue;
+                this.used_bytes -= entry_bytes(entry.getKey(), entry.getValue());
+                oldest.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+        return pairs;
+    }
+
+    private static long entry_bytes(String key, LongHashSet pairs){
+        return pairs.memory_bytes() + 2L * key.length() + 64;
+    }
+
+    public synchronized String stats(){
+        return "Body cache: " + this.hits.get() + " hits, " + this.misses.get() + " misses, " + this.evictions.get() +
+                " evictions, " + this.entries.size() + " entries, " + (this.used_bytes >> 20) + " MB";
+    }
+}
@@ -9,8 +9,6 @@ import org.neo4j.batchinsert.internal.BatchRelationship;
 import org.neo4j.configuration.Config;
 import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.cypher.internal.expressions.In;
-import org.neo4j.dbms.api.DatabaseManagementService;
-import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
 import org.neo4j.graphdb.*;
 import org.neo4j.io.layout.DatabaseLayout;
 import scala.Int;
@@ -21,30 +19,13 @@ import java.util.*;
 
 class BuildTestGraph{
 
-    public static void build_graph(ArrayList<ArrayList<Integer>> triples, String database_folder_path) throws IOException {
-
-
-        File neo4j_folder = new File(database_folder_path + "/db/");
-        if (neo4j_folder.exists())
-            MoreFiles.deleteRecursively(neo4j_folder.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
-        BatchInserter inserter = BatchInserters.inserter(DatabaseLayout.of(
-                Config.newBuilder().set(GraphDatabaseSettings.neo4j_home, neo4j_folder.toPath()).build()));
-
-        for(ArrayList<Integer> triple: triples){
-
-            int s = triple.get(0);
-            int p = triple.get(1);
-            int o = triple.get(2);
-
-            if (!inserter.nodeExists(s))
-                inserter.createNode(s, new HashMap<>(), Label.label("Node"));
-            if (!inserter.nodeExists(o))
-                inserter.createNode(o, new HashMap<>(), Label.label("Node"));
-
-            inserter.createRelationship(s, o, RelationshipType.withName("" + p), new HashMap<>());
-        }
-
-        inserter.shutdown();
+    public static void build_graph(String path_to_negatives, String database_folder_path) throws IOException {
+        /**
+         Builds the test store from the file written by write_triples_with_negatives, streaming it through an
+         OffHeapTripleStore so the negatives are never boxed on the heap.
+         */
+        OffHeapTripleStore store = OffHeapTripleStore.load(path_to_negatives);
+        RuleQuery.create_neo4j_database(database_folder_path + "/db/", store, store.predicates());
     }
 
     public static long get_pca_denominator(Transaction tx, Rule r){
@@ -118,141 +99,88 @@ class BuildTestGraph{
 
 
 
-        ArrayList<Double> metrics = RuleQuery.query_rule(r, path_to_database);
-        System.out.println("Rule: " + r.id_print() + " Metrics: " + metrics);
+        try (Neo4jSession session = Neo4jSession.open(path_to_database + "/db/")){
+            ArrayList<Double> metrics = RuleQuery.query_rule(r, session);
+            System.out.println("Rule: " + r.id_print() + " Metrics: " + metrics);
 
-        File neo4j_folder = new File(path_to_database + "/db/");
-        DatabaseManagementService service = new DatabaseManagementServiceBuilder(neo4j_folder.toPath()).
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).
-                setConfig(GraphDatabaseSettings.pagecache_memory, "64G").
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).build();
-        GraphDatabaseService db = service.database("neo4j");
-        Transaction tx = db.beginTx();
-        long support = 0;
+            long n_entities = RuleQuery.get_number_of_entities(session);
+            session.read(tx -> {
+                long support = 0;
 
-        try {
-            Result res = tx.execute("MATCH " + r.body_atoms.get(0).neo4j_print() + " WHERE NOT EXISTS(" + r.head_atom.neo4j_print().replace("" + (relation+1), "" + relation) + ") WITH DISTINCT a, b RETURN COUNT(*) as cnt");
-            while (res.hasNext()) {
-                Map<String, Object> row = res.next();
-                support = (long) row.get("cnt");
-            }
-            res.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+                try {
+                    Result res = tx.execute("MATCH " + r.body_atoms.get(0).neo4j_print() + " WHERE NOT EXISTS(" + r.head_atom.neo4j_print().replace("" + (relation+1), "" + relation) + ") WITH DISTINCT a, b RETURN COUNT(*) as cnt");
+                    while (res.hasNext()) {
+                        Map<String, Object> row = res.next();
+                        support = (long) row.get("cnt");
+                    }
+                    res.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
 
-        long heads = 0;
-        try {
-            Result res = tx.execute("MATCH (a) MATCH (b) WHERE NOT EXISTS(" + r.head_atom.neo4j_print().replace("" + (relation+1), "" + relation) + ") WITH DISTINCT a, b RETURN count(*) as cnt");
-            while (res.hasNext()) {
-                Map<String, Object> row = res.next();
-//                System.out.println(row);
-                heads = (long) row.get("cnt");
-            }
-            res.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+                long heads = n_entities * n_entities - RuleQuery.count_distinct_pairs(tx, r.head_atom.neo4j_print().replace("" + (relation+1), "" + relation));
 
-        long pca = get_pca_denominator(tx, r);
+                long pca = get_pca_denominator(tx, r);
 
-        System.out.println("Computed support: " + support);
-        System.out.println("Computed tHeads: " + heads);
-        System.out.println("Computed PCA: " + pca);
+                System.out.println("Computed support: " + support);
+                System.out.println("Computed tHeads: " + heads);
+                System.out.println("Computed PCA: " + pca);
 
-        System.out.println("Head coverage: " + (support * 1.0 / heads));
-        System.out.println("PCA confidence: " + (support * 1.0 / pca));
-        service.shutdown();
+                System.out.println("Head coverage: " + (support * 1.0 / heads));
+                System.out.println("PCA confidence: " + (support * 1.0 / pca));
+                return null;
+            });
+        }
     }
 
 
-    public static ArrayList<ArrayList<Integer>> get_triples_with_negatives(String path_to_triples, String path_to_negatives, int relation_of_interest) throws IOException {
-        Scanner sc = new Scanner(new File(path_to_triples));
-        BufferedWriter bf = new BufferedWriter(new FileWriter(path_to_negatives));
-
-        HashMap<Integer, HashMap<Integer, ArrayList<Integer>>> triples_by_relation = new HashMap<>();
+    public static void write_triples_with_negatives(String path_to_triples, String path_to_negatives, int relation_of_interest) throws IOException {
+        /**
+         Samples about half of the triples of a relation and adds their negatives, see NegativeTripleGenerator.
+         With -Dnegative_budget=n only n negatives per relation are drawn instead of the whole complement. Only the
+         positives are kept in memory; the negatives go straight to the file.
+         @param path_to_triples materialized triples (s p o, tab separated, with a header line)
+         @param path_to_negatives the file the positives followed by the negatives are written to
+         @param relation_of_interest the relation whose triples are kept
+         */
         Random rand = new Random();
-
-        sc.nextLine();
-        ArrayList<Integer> nodes = new ArrayList<>();
-        ArrayList<Integer> relationships = new ArrayList<>();
         ArrayList<ArrayList<Integer>> triples = new ArrayList<>();
 
-        while (sc.hasNext()) {
-            String line = sc.nextLine();
-
-            String[] splits = line.strip().split("\t");
-
-            int s = Integer.parseInt(splits[0]);
-            int p = Integer.parseInt(splits[1]);
-            int o = Integer.parseInt(splits[2]);
-
-            double randomNum = rand.nextDouble();
-            if (p != relation_of_interest || randomNum<=0.5){
-                continue;
-            }
-
-            ArrayList<Integer> temp_list1 = new ArrayList<>();
-            temp_list1.add(s);
-            temp_list1.add(p);
-            temp_list1.add(o);
-            triples.add(temp_list1);
-
-            if (!nodes.contains(s))
-                nodes.add(s);
-
-            if (!nodes.contains(o))
-                nodes.add(o);
-
-            if (!relationships.contains(p))
-                relationships.add(p);
-
-            if (!triples_by_relation.containsKey(p)) {
-                HashMap<Integer, ArrayList<Integer>> temp_map = new HashMap<>();
-                ArrayList<Integer> temp_list = new ArrayList<>();
-
-                temp_list.add(o);
-                temp_map.put(s, temp_list);
-                triples_by_relation.put(p, temp_map);
-            } else {
-                if (!triples_by_relation.get(p).containsKey(s)) {
-                    ArrayList<Integer> temp_list = new ArrayList<>();
-                    temp_list.add(o);
-                    triples_by_relation.get(p).put(s, temp_list);
-                } else {
-                    triples_by_relation.get(p).get(s).add(o);
+        try (BufferedReader reader = new BufferedReader(new FileReader(path_to_triples))){
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                String[] splits = line.strip().split("\t");
+
+                int s = Integer.parseInt(splits[0]);
+                int p = Integer.parseInt(splits[1]);
+                int o = Integer.parseInt(splits[2]);
+
+                double randomNum = rand.nextDouble();
+                if (p != relation_of_interest || randomNum<=0.5){
+                    continue;
                 }
-            }
-        }
 
-        System.out.println("Including positives: " + triples.size());
-        for (int r: relationships){
-            triples_by_relation.put(r+1, new HashMap<>());
-            HashMap<Integer, ArrayList<Integer>> temp_map = triples_by_relation.get(r);
-            for (int key: nodes){
-//                System.out.println(key);
-                for (int e: nodes){
-                    if (!temp_map.containsKey(key) || !temp_map.get(key).contains(e)){
-                        ArrayList<Integer> temp_list = new ArrayList<>();
-                        temp_list.add(key);
-                        temp_list.add(r+ relationships.size());
-                        temp_list.add(e);
-                        triples.add(temp_list);
-                    }
-                }
+                triples.add(new ArrayList<>(Arrays.asList(s, p, o)));
             }
         }
 
-        System.out.println("Including negatives: " + triples.size());
-        for (ArrayList<Integer> triple: triples){
-            bf.write(triple.get(0) + "\t" + triple.get(1) + "\t" + triple.get(2) + "\n");
-            bf.flush();
+        System.out.println("Including positives: " + triples.size());
+        long[] negatives = {0};
+        try (BufferedWriter bf = new BufferedWriter(new FileWriter(path_to_negatives), 1 << 16)){
+            for (ArrayList<Integer> triple: triples)
+                bf.write(triple.get(0) + "\t" + triple.get(1) + "\t" + triple.get(2) + "\n");
+
+            NegativeTripleGenerator generator = NegativeTripleGenerator.from_triples(triples);
+            generator.generate(RunConfig.negative_budget(), rand, (s, p, o) -> {
+                bf.write(s + "\t" + p + "\t" + o + "\n");
+                negatives[0]++;
+            });
         }
 
-        bf.close();
-        return triples;
+        System.out.println("Including negatives: " + (triples.size() + negatives[0]));
     }
 
     public static void main(String[] args) throws IOException {
@@ -264,7 +192,8 @@ class BuildTestGraph{
         String path_to_amie = "D:/PhD/Work/UnderstandingLP/amie-dev.jar";
 
         int relation = 0;
-        build_graph(get_triples_with_negatives(path_to_triples, path_to_negatives, relation), path_to_database);
+        write_triples_with_negatives(path_to_triples, path_to_negatives, relation);
+        build_graph(path_to_negatives, path_to_database);
 
 
         System.out.println("For functional variable a");
@@ -0,0 +1,254 @@
+package Graph_JAVA;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.internal.batchimport.AdditionalInitialIds;
+import org.neo4j.internal.batchimport.BatchImporter;
+import org.neo4j.internal.batchimport.BatchImporterFactory;
+import org.neo4j.internal.batchimport.Configuration;
+import org.neo4j.internal.batchimport.ImportLogic;
+import org.neo4j.internal.batchimport.InputIterator;
+import org.neo4j.internal.batchimport.input.Collector;
+import org.neo4j.internal.batchimport.input.Groups;
+import org.neo4j.internal.batchimport.input.IdType;
+import org.neo4j.internal.batchimport.input.Input;
+import org.neo4j.internal.batchimport.input.InputChunk;
+import org.neo4j.internal.batchimport.input.InputEntityVisitor;
+import org.neo4j.internal.batchimport.staging.ExecutionMonitor;
+import org.neo4j.io.fs.DefaultFileSystemAbstraction;
+import org.neo4j.io.layout.DatabaseLayout;
+import org.neo4j.io.pagecache.tracing.PageCacheTracer;
+import org.neo4j.kernel.impl.index.schema.IndexImporterFactoryImpl;
+import org.neo4j.kernel.impl.scheduler.JobSchedulerFactory;
+import org.neo4j.kernel.impl.store.format.RecordFormatSelector;
+import org.neo4j.kernel.impl.transaction.log.files.TransactionLogInitializer;
+import org.neo4j.logging.NullLogProvider;
+import org.neo4j.logging.internal.NullLogService;
+import org.neo4j.memory.EmptyMemoryTracker;
+import org.neo4j.scheduler.JobScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+public class BulkImporter {
+
+    // Builds a store with Neo4j's parallel batch importer (the engine behind neo4j-admin import), fed directly from the
+    // in-memory triples or an off-heap store instead of CSV files. Node ids are the entity ids, as with the BatchInserter path, so id(a)
+    // in Cypher still returns the entity id.
+
+    static final int CHUNK_SIZE = 10_000;
+    static final String[] NODE_LABELS = {"Node"};
+
+    public static void create_neo4j_database(String database_folder_path, ArrayList<ArrayList<Integer>> triples_to_add) throws IOException {
+        /**
+         Creates a neo4j database based on the given triples, like RuleQuery.create_neo4j_database but in parallel.
+         @param database_folder_path the path of the folder where the neo4j database will be stored
+         @param triples_to_add distinct triples in the form (subject, predicate, object)
+         @throws IOException if an I/O error occurs while accessing the database folder
+         */
+        File neo4j_folder = new File(database_folder_path);
+        if (neo4j_folder.exists())
+            MoreFiles.deleteRecursively(neo4j_folder.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+
+        BitSet entities = new BitSet();
+        for (ArrayList<Integer> triple: triples_to_add){
+            entities.set(triple.get(0));
+            entities.set(triple.get(2));
+        }
+        int[] nodes = entities.stream().toArray();
+
+        import_input(neo4j_folder, Input.input(
+                () -> new ChunkedInput(nodes.length, (i, visitor) -> {
+                    visitor.id(nodes[i]);
+                    visitor.labels(NODE_LABELS);
+                }),
+                () -> new ChunkedInput(triples_to_add.size(), (i, visitor) -> {
+                    ArrayList<Integer> triple = triples_to_add.get(i);
+                    visitor.startId(triple.get(0));
+                    visitor.endId(triple.get(2));
+                    visitor.type("" + triple.get(1));
+                }),
+                IdType.ACTUAL,
+                Input.knownEstimates(nodes.length, triples_to_add.size(), 0, 0, 0, 0, 1),
+                new Groups()));
+    }
+
+    public static void create_neo4j_database(String database_folder_path, OffHeapTripleStore store, int[] predicates) throws IOException {
+        /**
+         Creates a neo4j database from the distinct triples of some predicates of an off-heap store, like
+         RuleQuery.create_neo4j_database but in parallel. Relationships are read straight from the store's direct buffers.
+         @param database_folder_path the path of the folder where the neo4j database will be stored
+         @param store the store holding the triples
+         @param predicates the predicates to import, sorted and distinct
+         @throws IOException if an I/O error occurs while accessing the database folder
+         */
+        File neo4j_folder = new File(database_folder_path);
+        if (neo4j_folder.exists())
+            MoreFiles.deleteRecursively(neo4j_folder.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+
+        int[] nodes = store.entities(predicates).stream().toArray();
+        long estimate = 0;
+        for (int p: predicates)
+            estimate += store.size(p);
+        long relationships = estimate;
+
+        import_input(neo4j_folder, Input.input(
+                () -> new ChunkedInput(nodes.length, (i, visitor) -> {
+                    visitor.id(nodes[i]);
+                    visitor.labels(NODE_LABELS);
+                }),
+                () -> new PairInput(store, predicates),
+                IdType.ACTUAL,
+                Input.knownEstimates(nodes.length, relationships, 0, 0, 0, 0, 1),
+                new Groups()));
+    }
+
+    private static void import_input(File neo4j_folder, Input input) throws IOException {
+        Config db_config = Config.newBuilder().set(GraphDatabaseSettings.neo4j_home, neo4j_folder.toPath()).build();
+        DatabaseLayout layout = DatabaseLayout.of(db_config);
+        int processors = RunConfig.threads();
+        Configuration configuration = new Configuration(){
+            @Override
+            public int maxNumberOfProcessors(){
+                return processors;
+            }
+        };
+
+        // The scheduler is closed in finally rather than as a resource: its close() may throw InterruptedException.
+        JobScheduler job_scheduler = JobSchedulerFactory.createInitialisedScheduler();
+        try (DefaultFileSystemAbstraction file_system = new DefaultFileSystemAbstraction()){
+            BatchImporter importer = BatchImporterFactory.withHighestPriority().instantiate(
+                    layout, file_system, PageCacheTracer.NULL, configuration, NullLogService.getInstance(),
+                    ExecutionMonitor.INVISIBLE, AdditionalInitialIds.EMPTY, db_config,
+                    RecordFormatSelector.selectForConfig(db_config, NullLogProvider.getInstance()), ImportLogic.NO_MONITOR,
+                    job_scheduler, Collector.EMPTY, TransactionLogInitializer.getLogFilesInitializer(),
+                    new IndexImporterFactoryImpl(db_config), EmptyMemoryTracker.INSTANCE);
+            importer.doImport(input);
+        } catch (IOException e){
+            throw e;
+        } catch (Exception e){
+            throw new IOException("Bulk import into " + neo4j_folder + " failed", e);
+        } finally {
+            try {
+                job_scheduler.close();
+            } catch (Exception e){
+                if (e instanceof InterruptedException)
+                    Thread.currentThread().interrupt();
+                System.out.println("Could not stop the import scheduler: " + e.getMessage());
+            }
+        }
+    }
+
+    interface EntityWriter {
+        void write(int index, InputEntityVisitor visitor) throws IOException;
+    }
+
+    private static class ChunkedInput implements InputIterator {
+
+        // Hands out consecutive index ranges to the importer's threads; each chunk replays its range into the visitor.
+        int size;
+        int next = 0;
+        EntityWriter writer;
+
+        ChunkedInput(int size, EntityWriter writer){
+            this.size = size;
+            this.writer = writer;
+        }
+
+        @Override
+        public InputChunk newChunk(){
+            return new RangeChunk(this.writer);
+        }
+
+        @Override
+        public synchronized boolean next(InputChunk chunk){
+            if (this.next >= this.size)
+                return false;
+            RangeChunk range = (RangeChunk) chunk;
+            range.position = this.next;
+            range.end = Math.min(this.size, this.next + CHUNK_SIZE);
+            this.next = range.end;
+            return true;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+
+    private static class PairInput implements InputIterator {
+
+        // Hands out ranges of the pairs of one predicate after the other; each chunk reads its range from the column of
+        // its predicate in the store, so no pairs are copied onto the heap.
+        OffHeapTripleStore store;
+        int[] predicates;
+        int predicate = -1;
+        OffHeapTripleStore.Column column = null;
+        long next = 0;
+
+        PairInput(OffHeapTripleStore store, int[] predicates){
+            this.store = store;
+            this.predicates = predicates;
+        }
+
+        @Override
+        public InputChunk newChunk(){
+            return new RangeChunk(null);
+        }
+
+        @Override
+        public synchronized boolean next(InputChunk chunk){
+            while (this.column == null || this.next >= this.column.size){
+                if (this.predicate + 1 >= this.predicates.length)
+                    return false;
+                this.column = this.store.column(this.predicates[++this.predicate]);
+                this.next = 0;
+            }
+            OffHeapTripleStore.Column column = this.column;
+            long start = this.next;
+            String type = "" + this.predicates[this.predicate];
+            RangeChunk range = (RangeChunk) chunk;
+            range.writer = (i, visitor) -> {
+                visitor.startId(column.subject(start + i));
+                visitor.endId(column.object(start + i));
+                visitor.type(type);
+            };
+            range.position = 0;
+            range.end = (int) Math.min(column.size - start, CHUNK_SIZE);
+            this.next = start + range.end;
+            return true;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+
+    private static class RangeChunk implements InputChunk {
+
+        int position;
+        int end;
+        EntityWriter writer;
+
+        RangeChunk(EntityWriter writer){
+            this.writer = writer;
+        }
+
+        @Override
+        public boolean next(InputEntityVisitor visitor) throws IOException {
+            if (this.position >= this.end)
+                return false;
+            this.writer.write(this.position++, visitor);
+            visitor.endOfEntity();
+            return true;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
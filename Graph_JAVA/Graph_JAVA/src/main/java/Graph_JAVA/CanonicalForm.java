@@ -0,0 +1,106 @@
+package Graph_JAVA;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CanonicalForm {
+
+    // Bodies are compared up to atom order and renaming of their existential variables. The functional and non functional
+    // variables are labelled F and N, the others v0, v1, ... by first occurrence, and the key is the smallest rendering
+    // over all atom orders. Mined bodies have at most a handful of atoms, so trying every order is cheap. Whole rules
+    // are keyed by their body key and their head labelled the same way.
+    static final int MAX_PERMUTED_ATOMS = 6;
+
+    public static String body_key(List<Atom> body_atoms, String functional_variable){
+        /**
+         @param body_atoms the body of a rule
+         @param functional_variable "a" or "b"
+         @return a key equal for two bodies exactly when they have the same (fv, nfv) bindings on every graph, up to isomorphism
+         */
+        String nfv = functional_variable.equals("a") ? "b" : "a";
+        List<Atom> atoms = new ArrayList<>(body_atoms);
+        if (atoms.size() > MAX_PERMUTED_ATOMS){
+            // Too many orders to try: fall back to a fixed order, which still catches renamed copies in the same order.
+            atoms.sort((x, y) -> x.relationship.compareTo(y.relationship));
+            return render(atoms, functional_variable, nfv);
+        }
+
+        String[] best = {null};
+        permute(atoms, 0, functional_variable, nfv, best);
+        return best[0];
+    }
+
+    public static String rule_key(Rule rule){
+        /**
+         Rules with the same key are the same up to atom order and variable renaming, including swapping a and b together
+         with the functional variable, so they have the same HC and PCA on every graph. The converse holds for bodies of
+         at most MAX_PERMUTED_ATOMS atoms.
+         @return the body key followed by the head, with the head variables labelled F and N like the body
+         */
+        String fv = rule.functional_variable;
+        String nfv = fv.equals("a") ? "b" : "a";
+        Map<String, String> roles = new HashMap<>();
+        roles.put(fv, "F");
+        roles.put(nfv, "N");
+        String head = rule.head_atom.relationship + "(" +
+                roles.getOrDefault(InMemoryRuleQuery.variable(rule.head_atom.variable1), rule.head_atom.variable1) + "," +
+                roles.getOrDefault(InMemoryRuleQuery.variable(rule.head_atom.variable2), rule.head_atom.variable2) + ")";
+        return body_key(rule.body_atoms, fv) + "=> " + head;
+    }
+
+    public static long rule_hash(Rule rule){
+        /**
+         @return the 64-bit FNV-1a hash of rule_key, which unlike hashCode does not depend on the JVM or the run
+         */
+        long hash = 0xcbf29ce484222325L;
+        for (byte b: rule_key(rule).getBytes(StandardCharsets.UTF_8)){
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static boolean equivalent(Rule x, Rule y){
+        return rule_key(x).equals(rule_key(y));
+    }
+
+    private static void permute(List<Atom> atoms, int k, String fv, String nfv, String[] best){
+        if (k == atoms.size()){
+            String key = render(atoms, fv, nfv);
+            if (best[0] == null || key.compareTo(best[0]) < 0)
+                best[0] = key;
+            return;
+        }
+        for (int i = k; i < atoms.size(); ++i){
+            Collections.swap(atoms, k, i);
+            permute(atoms, k + 1, fv, nfv, best);
+            Collections.swap(atoms, k, i);
+        }
+    }
+
+    static String render(List<Atom> atoms, String fv, String nfv){
+        Map<String, String> names = new HashMap<>();
+        names.put(fv, "F");
+        names.put(nfv, "N");
+        StringBuilder key = new StringBuilder();
+        for (Atom atom: atoms){
+            key.append(atom.relationship).append('(')
+                    .append(name(names, InMemoryRuleQuery.variable(atom.variable1))).append(',')
+                    .append(name(names, InMemoryRuleQuery.variable(atom.variable2))).append(") ");
+        }
+        return key.toString();
+    }
+
+    private static String name(Map<String, String> names, String variable){
+        String name = names.get(variable);
+        if (name == null){
+            name = "v" + (names.size() - 2);
+            names.put(variable, name);
+        }
+        return name;
+    }
+}
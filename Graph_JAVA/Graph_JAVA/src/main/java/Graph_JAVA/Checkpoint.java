@@ -0,0 +1,105 @@
+package Graph_JAVA;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+public class Checkpoint {
+
+    // Progress of a run that writes one output row per rule in rule order: the number of rules whose rows are complete
+    // and the length of the output at that point. A restart truncates the output to that length, dropping a partly
+    // written row, and continues with the next rule. The fingerprint ties the checkpoint to the rules, the input files
+    // and the options that change the output, so a checkpoint left by a run over different inputs or with different
+    // options is ignored.
+    String checkpoint_path;
+    String output_path;
+    String fingerprint;
+    int completed = 0;
+    long offset = 0;
+    boolean resumed = false;
+
+    private Checkpoint(String checkpoint_path, String output_path, String fingerprint){
+        this.checkpoint_path = checkpoint_path;
+        this.output_path = output_path;
+        this.fingerprint = fingerprint;
+    }
+
+    public static String fingerprint(List<Rule> rules, String... input_file_paths){
+        /**
+         @param rules the rules in evaluation order
+         @param input_file_paths the triple files; null entries are ignored
+         @return a hash of the rules, of RunConfig.output_options and of the size and modification time of the inputs
+         */
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(RunConfig.output_options() + "\n", StandardCharsets.UTF_8);
+        for (Rule rule: rules)
+            hasher.putString(rule.functional_variable + "\t" + rule.id_print() + "\n", StandardCharsets.UTF_8);
+        for (String path: input_file_paths){
+            if (path == null)
+                continue;
+            File file = new File(path);
+            hasher.putString(path, StandardCharsets.UTF_8).putLong(file.length()).putLong(file.lastModified());
+        }
+        return hasher.hash().toString();
+    }
+
+    public static Checkpoint open(String output_path, String fingerprint) throws IOException {
+        /**
+         Reads the checkpoint of output_path if it belongs to a run with the same fingerprint.
+         @return the checkpoint; resumed is false when the run starts from the first rule
+         */
+        Checkpoint checkpoint = new Checkpoint(output_path + ".checkpoint", output_path, fingerprint);
+        File file = new File(checkpoint.checkpoint_path);
+        if (!file.exists() || !new File(output_path).exists())
+            return checkpoint;
+
+        String[] fields = Files.readString(file.toPath()).strip().split("\t");
+        if (fields.length == 3 && fields[0].equals(fingerprint) && new File(output_path).length() >= Long.parseLong(fields[2])){
+            checkpoint.completed = Integer.parseInt(fields[1]);
+            checkpoint.offset = Long.parseLong(fields[2]);
+            checkpoint.resumed = true;
+            System.out.println("Resuming after " + checkpoint.completed + " completed rules");
+        }
+        else
+            System.out.println("Ignoring checkpoint of a run over different rules or inputs");
+        return checkpoint;
+    }
+
+    public BufferedWriter open_output() throws IOException {
+        /**
+         @return a writer appending after the checkpointed rows, or over an empty output when not resuming
+         */
+        if (!this.resumed)
+            return new BufferedWriter(new FileWriter(this.output_path));
+        try (RandomAccessFile output = new RandomAccessFile(this.output_path, "rw")){
+            output.setLength(this.offset);
+        }
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.output_path, true)));
+    }
+
+    public void record(int completed) throws IOException {
+        /**
+         Records that the rows of the first completed rules are in the output; the writer must have been flushed.
+         */
+        this.completed = completed;
+        this.offset = new File(this.output_path).length();
+        File temp = new File(this.checkpoint_path + ".tmp");
+        Files.writeString(temp.toPath(), this.fingerprint + "\t" + this.completed + "\t" + this.offset + "\n");
+        Files.move(temp.toPath(), new File(this.checkpoint_path).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(new File(this.checkpoint_path).toPath());
+    }
+}
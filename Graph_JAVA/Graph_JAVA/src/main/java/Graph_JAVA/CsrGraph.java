@@ -0,0 +1,97 @@
+package Graph_JAVA;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CsrGraph {
+
+    Map<Integer, CsrRelation> relations;
+
+    public CsrGraph(Map<Integer, CsrRelation> relations){
+        this.relations = relations;
+    }
+
+    public static CsrGraph from_triple_dict(HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict){
+        /**
+         Builds per-relation compressed sparse row adjacency from the output of RuleQuery.collect_materializations.
+         @param triple_dict triples grouped by predicate, each triple in the form (subject, predicate, object)
+         @return the in-memory graph, with duplicate triples removed
+         */
+        Map<Integer, CsrRelation> relations = new HashMap<>();
+
+        for (Map.Entry<Integer, ArrayList<ArrayList<Integer>>> entry: triple_dict.entrySet()){
+            ArrayList<ArrayList<Integer>> triples = entry.getValue();
+            long[] pairs = new long[triples.size()];
+            int size = 0;
+            for (ArrayList<Integer> triple: triples)
+                pairs[size++] = CsrRelation.pack(triple.get(0), triple.get(2));
+            relations.put(entry.getKey(), CsrRelation.from_pairs(entry.getKey(), pairs, size));
+        }
+
+        return new CsrGraph(relations);
+    }
+
+    public static CsrGraph from_mapped(MappedTriples mapped){
+        /**
+         Builds the graph straight from memory-mapped columns, without going through boxed triples.
+         @param mapped triples loaded by BinaryTripleFile.load
+         @return the in-memory graph, with duplicate triples removed
+         */
+        Map<Integer, CsrRelation> relations = new HashMap<>();
+
+        for (int i = 0; i < mapped.predicates.length; ++i){
+            IntBuffer s = mapped.subjects[i], o = mapped.objects[i];
+            long[] pairs = new long[s.limit()];
+            for (int j = 0; j < pairs.length; ++j)
+                pairs[j] = CsrRelation.pack(s.get(j), o.get(j));
+            relations.put(mapped.predicates[i], CsrRelation.from_pairs(mapped.predicates[i], pairs, pairs.length));
+        }
+
+        return new CsrGraph(relations);
+    }
+
+    public static CsrGraph overlay(CsrGraph base, CsrGraph extra){
+        /**
+         Combines two graphs without re-reading their triples. Relations present in only one graph are shared with it.
+         @return the union of the edges of both graphs, with duplicates removed
+         */
+        Map<Integer, CsrRelation> relations = new HashMap<>(base.relations);
+        for (Map.Entry<Integer, CsrRelation> entry: extra.relations.entrySet()){
+            CsrRelation base_relation = base.relations.get(entry.getKey());
+            if (base_relation == null){
+                relations.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            long[] pairs = new long[base_relation.edge_count() + entry.getValue().edge_count()];
+            int size = add_pairs(base_relation, pairs, 0);
+            size = add_pairs(entry.getValue(), pairs, size);
+            relations.put(entry.getKey(), CsrRelation.from_pairs(entry.getKey(), pairs, size));
+        }
+        return new CsrGraph(relations);
+    }
+
+    private static int add_pairs(CsrRelation relation, long[] pairs, int size){
+        for (int k = 0; k < relation.out_keys.length; ++k)
+            for (int e = relation.out_offsets[k]; e < relation.out_offsets[k + 1]; ++e)
+                pairs[size++] = CsrRelation.pack(relation.out_keys[k], relation.out_targets[e]);
+        return size;
+    }
+
+    public CsrRelation relation(int p){
+        CsrRelation relation = this.relations.get(p);
+        return relation == null ? CsrRelation.empty(p) : relation;
+    }
+
+    public CsrRelation relation(String p){
+        return this.relation(Integer.parseInt(p));
+    }
+
+    public long edge_count(){
+        long edges = 0;
+        for (CsrRelation relation: this.relations.values())
+            edges += relation.edge_count();
+        return edges;
+    }
+}
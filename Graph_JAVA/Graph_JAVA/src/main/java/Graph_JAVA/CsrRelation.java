@@ -0,0 +1,134 @@
+package Graph_JAVA;
+
+import java.util.Arrays;
+
+public class CsrRelation {
+
+    int relation;
+
+    // Forward adjacency: out_keys holds the sorted distinct subjects, and the objects of out_keys[i] are
+    // out_targets[out_offsets[i] .. out_offsets[i+1]), sorted ascending.
+    int[] out_keys;
+    int[] out_offsets;
+    int[] out_targets;
+
+    // Reverse adjacency, same layout keyed by object.
+    int[] in_keys;
+    int[] in_offsets;
+    int[] in_targets;
+
+    public CsrRelation(int relation, int[] out_keys, int[] out_offsets, int[] out_targets, int[] in_keys, int[] in_offsets, int[] in_targets){
+        this.relation = relation;
+        this.out_keys = out_keys;
+        this.out_offsets = out_offsets;
+        this.out_targets = out_targets;
+        this.in_keys = in_keys;
+        this.in_offsets = in_offsets;
+        this.in_targets = in_targets;
+    }
+
+    public static CsrRelation empty(int relation){
+        return new CsrRelation(relation, new int[0], new int[]{0}, new int[0], new int[0], new int[]{0}, new int[0]);
+    }
+
+    public static long pack(int s, int o){
+        return ((long) s << 32) | (o & 0xffffffffL);
+    }
+
+    public static int first(long pair){
+        return (int) (pair >>> 32);
+    }
+
+    public static int second(long pair){
+        return (int) pair;
+    }
+
+    public static CsrRelation from_pairs(int relation, long[] pairs, int size){
+        /**
+         Builds forward and reverse adjacency for one relation.
+         @param relation the relation id
+         @param pairs (subject, object) pairs packed with pack(); the array is sorted in place and may contain duplicates
+         @param size number of valid entries in pairs
+         @return the relation with duplicate edges removed
+         */
+        Arrays.parallelSort(pairs, 0, size);
+        int unique = dedup(pairs, size);
+
+        int[] out_keys = new int[count_keys(pairs, unique)];
+        int[] out_offsets = new int[out_keys.length + 1];
+        int[] out_targets = new int[unique];
+        fill(pairs, unique, out_keys, out_offsets, out_targets);
+
+        long[] reversed = new long[unique];
+        for (int i = 0; i < unique; ++i)
+            reversed[i] = pack(second(pairs[i]), first(pairs[i]));
+        Arrays.parallelSort(reversed);
+
+        int[] in_keys = new int[count_keys(reversed, unique)];
+        int[] in_offsets = new int[in_keys.length + 1];
+        int[] in_targets = new int[unique];
+        fill(reversed, unique, in_keys, in_offsets, in_targets);
+
+        return new CsrRelation(relation, out_keys, out_offsets, out_targets, in_keys, in_offsets, in_targets);
+    }
+
+    private static int dedup(long[] sorted, int size){
+        int unique = 0;
+        for (int i = 0; i < size; ++i)
+            if (unique == 0 || sorted[unique - 1] != sorted[i])
+                sorted[unique++] = sorted[i];
+        return unique;
+    }
+
+    private static int count_keys(long[] sorted, int size){
+        int keys = 0;
+        for (int i = 0; i < size; ++i)
+            if (i == 0 || first(sorted[i - 1]) != first(sorted[i]))
+                keys++;
+        return keys;
+    }
+
+    private static void fill(long[] sorted, int size, int[] keys, int[] offsets, int[] targets){
+        int k = -1;
+        for (int i = 0; i < size; ++i){
+            int key = first(sorted[i]);
+            if (k < 0 || keys[k] != key){
+                keys[++k] = key;
+                offsets[k] = i;
+            }
+            targets[i] = second(sorted[i]);
+        }
+        offsets[keys.length] = size;
+    }
+
+    public int edge_count(){
+        return this.out_targets.length;
+    }
+
+    public int out_index(int s){
+        int idx = Arrays.binarySearch(this.out_keys, s);
+        return idx < 0 ? -1 : idx;
+    }
+
+    public int in_index(int o){
+        int idx = Arrays.binarySearch(this.in_keys, o);
+        return idx < 0 ? -1 : idx;
+    }
+
+    public int out_degree(int s){
+        int idx = this.out_index(s);
+        return idx < 0 ? 0 : this.out_offsets[idx + 1] - this.out_offsets[idx];
+    }
+
+    public int in_degree(int o){
+        int idx = this.in_index(o);
+        return idx < 0 ? 0 : this.in_offsets[idx + 1] - this.in_offsets[idx];
+    }
+
+    public boolean contains(int s, int o){
+        int idx = this.out_index(s);
+        if (idx < 0)
+            return false;
+        return Arrays.binarySearch(this.out_targets, this.out_offsets[idx], this.out_offsets[idx + 1], o) >= 0;
+    }
+}
@@ -0,0 +1,250 @@
+package Graph_JAVA;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+public class DegreeIndex {
+
+    // Out- and in-degrees of every entity per relation, kept sparse: sorted keys with a parallel degree column, so a
+    // degree is a binary search and entities without edges in a relation cost nothing. The index is saved next to the
+    // triples it describes and memory-mapped by later runs, so the Neo4j asymmetry path needs no degree scan of the store.
+    // Layout, little endian:
+    //   header     int magic, int version, int n_predicates
+    //   directory  n_predicates x (int predicate, int n_subjects, int n_objects, long edges, long offset)
+    //   columns    for each predicate, starting at offset: subjects, out-degrees, objects, in-degrees, all int32
+    static final int MAGIC = 0x44454731;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 12;
+    static final int DIRECTORY_ENTRY_BYTES = 28;
+
+    int[] predicates;
+    long[] edges;
+    IntBuffer[] subjects;
+    IntBuffer[] out_degrees;
+    IntBuffer[] objects;
+    IntBuffer[] in_degrees;
+    Map<Integer, Integer> index = new HashMap<>();
+
+    public DegreeIndex(int[] predicates, long[] edges, IntBuffer[] subjects, IntBuffer[] out_degrees, IntBuffer[] objects, IntBuffer[] in_degrees){
+        this.predicates = predicates;
+        this.edges = edges;
+        this.subjects = subjects;
+        this.out_degrees = out_degrees;
+        this.objects = objects;
+        this.in_degrees = in_degrees;
+        for (int i = 0; i < predicates.length; ++i)
+            this.index.put(predicates[i], i);
+    }
+
+    public static DegreeIndex from_graph(CsrGraph graph){
+        /**
+         Builds the index on the heap from the CSR offsets, without touching the edges.
+         */
+        int n = graph.relations.size();
+        int[] predicates = new int[n];
+        long[] edges = new long[n];
+        IntBuffer[] subjects = new IntBuffer[n], out_degrees = new IntBuffer[n];
+        IntBuffer[] objects = new IntBuffer[n], in_degrees = new IntBuffer[n];
+
+        int i = 0;
+        for (CsrRelation relation: graph.relations.values()){
+            predicates[i] = relation.relation;
+            edges[i] = relation.edge_count();
+            subjects[i] = IntBuffer.wrap(relation.out_keys);
+            out_degrees[i] = IntBuffer.wrap(degrees(relation.out_offsets));
+            objects[i] = IntBuffer.wrap(relation.in_keys);
+            in_degrees[i] = IntBuffer.wrap(degrees(relation.in_offsets));
+            ++i;
+        }
+        return new DegreeIndex(predicates, edges, subjects, out_degrees, objects, in_degrees);
+    }
+
+    private static int[] degrees(int[] offsets){
+        int[] degrees = new int[Math.max(0, offsets.length - 1)];
+        for (int i = 0; i < degrees.length; ++i)
+            degrees[i] = offsets[i + 1] - offsets[i];
+        return degrees;
+    }
+
+    public static DegreeIndex load_or_build(String index_path, Supplier<CsrGraph> graph, String... input_file_paths) throws IOException {
+        /**
+         Maps the index stored at index_path, writing it from graph first if it is missing or older than the inputs.
+         @param graph builds the graph of the inputs; only called when the index has to be written
+         @param input_file_paths the triple files graph is built from; null entries are ignored
+         */
+        if (!BinaryTripleFile.is_up_to_date(index_path, input_file_paths)){
+            System.out.println("Writing degree index " + index_path);
+            from_graph(graph.get()).write(index_path);
+        }
+        return load(index_path);
+    }
+
+    public void write(String index_path) throws IOException {
+        /**
+         Writes the index next to index_path and moves it over index_path once complete, like BinaryTripleFile.convert.
+         */
+        int n = this.predicates.length;
+        long offset = HEADER_BYTES + (long) DIRECTORY_ENTRY_BYTES * n;
+        ByteBuffer head = ByteBuffer.allocate((int) offset).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(MAGIC).putInt(VERSION).putInt(n);
+        for (int i = 0; i < n; ++i){
+            int n_subjects = this.subjects[i].limit(), n_objects = this.objects[i].limit();
+            head.putInt(this.predicates[i]).putInt(n_subjects).putInt(n_objects).putLong(this.edges[i]).putLong(offset);
+            offset += 8L * (n_subjects + n_objects);
+        }
+        head.flip();
+
+        Path temporary = Paths.get(index_path + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            while (head.hasRemaining())
+                channel.write(head);
+            for (int i = 0; i < n; ++i){
+                write_column(channel, this.subjects[i]);
+                write_column(channel, this.out_degrees[i]);
+                write_column(channel, this.objects[i]);
+                write_column(channel, this.in_degrees[i]);
+            }
+        }
+        Files.move(temporary, Paths.get(index_path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write_column(FileChannel channel, IntBuffer column) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * column.limit()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(column.duplicate().rewind());
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    public static DegreeIndex load(String index_path) throws IOException {
+        /**
+         Maps a file written by write; columns are paged in on first access.
+         @throws IOException if the file cannot be mapped, is not a degree index or is shorter or longer than its directory says
+         */
+        try (FileChannel channel = FileChannel.open(Paths.get(index_path), StandardOpenOption.READ)){
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException("Not a degree index: " + index_path);
+
+            int n = header.getInt(8);
+            ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    (long) DIRECTORY_ENTRY_BYTES * n).order(ByteOrder.LITTLE_ENDIAN);
+
+            long expected_bytes = HEADER_BYTES + (long) DIRECTORY_ENTRY_BYTES * n;
+            for (int i = 0; i < n; ++i)
+                expected_bytes += 8L * (directory.getInt(DIRECTORY_ENTRY_BYTES * i + 4) + directory.getInt(DIRECTORY_ENTRY_BYTES * i + 8));
+            if (channel.size() != expected_bytes)
+                throw new IOException("Degree index " + index_path + " has " + channel.size() + " bytes, its directory expects " + expected_bytes);
+
+            int[] predicates = new int[n];
+            long[] edges = new long[n];
+            IntBuffer[] subjects = new IntBuffer[n], out_degrees = new IntBuffer[n];
+            IntBuffer[] objects = new IntBuffer[n], in_degrees = new IntBuffer[n];
+            for (int i = 0; i < n; ++i){
+                predicates[i] = directory.getInt();
+                int n_subjects = directory.getInt();
+                int n_objects = directory.getInt();
+                edges[i] = directory.getLong();
+                long offset = directory.getLong();
+                subjects[i] = map_column(channel, offset, n_subjects);
+                out_degrees[i] = map_column(channel, offset + 4L * n_subjects, n_subjects);
+                objects[i] = map_column(channel, offset + 8L * n_subjects, n_objects);
+                in_degrees[i] = map_column(channel, offset + 8L * n_subjects + 4L * n_objects, n_objects);
+            }
+            return new DegreeIndex(predicates, edges, subjects, out_degrees, objects, in_degrees);
+        }
+    }
+
+    private static IntBuffer map_column(FileChannel channel, long offset, int count) throws IOException {
+        MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * count);
+        return column.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    public int out_degree(int p, int v){
+        Integer i = this.index.get(p);
+        return i == null ? 0 : lookup(this.subjects[i], this.out_degrees[i], v);
+    }
+
+    public int in_degree(int p, int v){
+        Integer i = this.index.get(p);
+        return i == null ? 0 : lookup(this.objects[i], this.in_degrees[i], v);
+    }
+
+    public long degree(int[] relations, int v, boolean out){
+        /**
+         @return the number of outgoing (or incoming) edges of v summed over the relations
+         */
+        long degree = 0;
+        for (int p: relations)
+            degree += out ? out_degree(p, v) : in_degree(p, v);
+        return degree;
+    }
+
+    private static int lookup(IntBuffer keys, IntBuffer degrees, int v){
+        int low = 0, high = keys.limit() - 1;
+        while (low <= high){
+            int mid = (low + high) >>> 1;
+            int key = keys.get(mid);
+            if (key < v)
+                low = mid + 1;
+            else if (key > v)
+                high = mid - 1;
+            else
+                return degrees.get(mid);
+        }
+        return 0;
+    }
+
+    public long edge_count(int p){
+        Integer i = this.index.get(p);
+        return i == null ? 0 : this.edges[i];
+    }
+
+    public int subject_count(int p){
+        Integer i = this.index.get(p);
+        return i == null ? 0 : this.subjects[i].limit();
+    }
+
+    public int object_count(int p){
+        Integer i = this.index.get(p);
+        return i == null ? 0 : this.objects[i].limit();
+    }
+
+    public long entity_count(int[] relations){
+        /**
+         @return the number of distinct entities with an edge in any of the relations
+         */
+        BitSet entities = new BitSet();
+        for (int p: relations){
+            Integer i = this.index.get(p);
+            if (i == null)
+                continue;
+            for (IntBuffer keys: new IntBuffer[]{this.subjects[i], this.objects[i]})
+                for (int j = 0; j < keys.limit(); ++j)
+                    entities.set(keys.get(j));
+        }
+        return entities.cardinality();
+    }
+
+    public String functional_variable(int p){
+        /**
+         AMIE's choice of the PCA functional variable for a head relation: the subject when the relation is at least as
+         functional (distinct subjects per edge) as it is inverse functional (distinct objects per edge).
+         @return "a" or "b"
+         */
+        return subject_count(p) >= object_count(p) ? "a" : "b";
+    }
+}
@@ -0,0 +1,143 @@
+package Graph_JAVA;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class EngineEquivalence {
+
+    // Scores the same rules with InMemoryRuleQuery and with RuleQuery.query_rule on a Neo4j store holding the same
+    // triples, and reports every rule whose HC or PCA differ. The graph is random but seeded, small enough to build in
+    // seconds, skewed towards a few hub entities and with self loops in every relation. The rules are chains of one to
+    // three atoms, bodies with self loops and bodies missing a head variable, each with either functional variable.
+    // -Dengine=traversal compares against the traversal engine instead of Cypher.
+    static final long SEED = 97;
+    static final int N_ENTITIES = 300;
+    static final int N_RELATIONS = 4;
+    static final int TRIPLES_PER_RELATION = 2000;
+    static final int SELF_LOOPS_PER_RELATION = 30;
+
+    static final String[] BODIES = {
+            "1(?a,?b)",
+            "1(?b,?a)",
+            "0(?b,?a)",
+            "1(?a,?z) 2(?z,?b)",
+            "1(?z,?a) 2(?z,?b)",
+            "1(?a,?z) 2(?z,?w) 3(?w,?b)",
+            "1(?a,?z) 2(?w,?z) 3(?b,?w)",
+            "1(?a,?a) 2(?a,?b)",
+            "1(?a,?b) 2(?b,?b)",
+            "1(?a,?z) 2(?z,?z) 3(?z,?b)",
+            "1(?a,?z)",
+            "1(?a,?z) 2(?z,?w)",
+            "1(?z,?w)",
+    };
+
+    public static void main(String[] args) throws Exception {
+        /**
+         Runs the comparison and exits with status 1 if any rule differs.
+         @param args optionally, the folder to build the Neo4j store in; a temporary folder is used and removed otherwise
+         */
+        File folder = args.length > 0 ? new File(args[0]) : Files.createTempDirectory("engine-equivalence").toFile();
+        int mismatches;
+        try {
+            mismatches = compare(folder.getPath() + "/db/");
+        } finally {
+            if (args.length == 0)
+                MoreFiles.deleteRecursively(folder.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+        }
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    public static int compare(String database_folder_path) throws Exception {
+        /**
+         @param database_folder_path where the Neo4j store is built; an existing store there is replaced
+         @return the number of rules whose metrics differ between the engines
+         */
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict = synthetic_triples();
+        ArrayList<ArrayList<Integer>> triples = new ArrayList<>();
+        for (ArrayList<ArrayList<Integer>> relation_triples: triple_dict.values())
+            triples.addAll(relation_triples);
+        System.out.println("Synthetic triples: " + triples.size() + " over " + N_ENTITIES + " entities");
+
+        CsrGraph graph = CsrGraph.from_triple_dict(triple_dict);
+        RuleQuery.create_neo4j_database(database_folder_path, triples);
+
+        List<Rule> rules = synthetic_rules();
+        int mismatches = 0;
+        try (Neo4jSession session = Neo4jSession.open(database_folder_path)){
+            for (Rule rule: rules){
+                ArrayList<Double> expected = RuleQuery.query_rule(rule, session);
+                ArrayList<Double> actual = InMemoryRuleQuery.query_rule(rule, graph);
+                if (!same_metrics(expected, actual)){
+                    System.out.println("MISMATCH " + rule.id_print() + " functional variable " + rule.functional_variable +
+                            ": " + RunConfig.engine() + " " + expected + ", memory " + actual);
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println("Rules compared: " + rules.size() + ", mismatches: " + mismatches);
+        return mismatches;
+    }
+
+    static boolean same_metrics(ArrayList<Double> expected, ArrayList<Double> actual){
+        for (int i = 0; i < 2; ++i){
+            double x = expected.get(i), y = actual.get(i);
+            boolean same = Double.isNaN(x) ? Double.isNaN(y) : Math.abs(x - y) <= 1e-9 * Math.max(1, Math.abs(x));
+            if (!same)
+                return false;
+        }
+        return true;
+    }
+
+    public static HashMap<Integer, ArrayList<ArrayList<Integer>>> synthetic_triples(){
+        /**
+         @return distinct random triples of every relation, in the layout of RuleQuery.collect_materializations
+         */
+        Random random = new Random(SEED);
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict = new HashMap<>();
+        for (int p = 0; p < N_RELATIONS; ++p){
+            Set<List<Integer>> distinct = new LinkedHashSet<>();
+            while (distinct.size() < TRIPLES_PER_RELATION)
+                distinct.add(Arrays.asList(entity(random), p, entity(random)));
+            for (int i = 0; i < SELF_LOOPS_PER_RELATION; ++i){
+                int e = entity(random);
+                distinct.add(Arrays.asList(e, p, e));
+            }
+            ArrayList<ArrayList<Integer>> triples = new ArrayList<>();
+            for (List<Integer> triple: distinct)
+                triples.add(new ArrayList<>(triple));
+            triple_dict.put(p, triples);
+        }
+        return triple_dict;
+    }
+
+    private static int entity(Random random){
+        // Squaring a uniform draw skews ids towards 0, so some entities are hubs and chains have many bindings.
+        double u = random.nextDouble();
+        return (int) (u * u * N_ENTITIES);
+    }
+
+    public static List<Rule> synthetic_rules() throws IOException {
+        /**
+         @return every body of BODIES with head 0(?a,?b), parsed as AMIE output lines, once per functional variable
+         */
+        RuleParser rp = new RuleParser("", null, "", "", "\t");
+        List<Rule> rules = new ArrayList<>();
+        for (String body: BODIES)
+            for (String functional_variable: new String[]{"?a", "?b"})
+                rules.add(rp.parse_rule_line(body + "  => 0(?a,?b)\t0.1\t0.1\t0.2\t10\t100\t50\t" + functional_variable, 1.0));
+        return rules;
+    }
+}
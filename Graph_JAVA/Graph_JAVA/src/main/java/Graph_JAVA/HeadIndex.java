@@ -0,0 +1,74 @@
+package Graph_JAVA;
+
+import java.util.ArrayList;
+
+public class HeadIndex {
+
+    // Everything query_rule needs from the head relation, built once and shared by all rules with that head predicate:
+    // the distinct (subject, object) pairs and the distinct subjects and objects, which are the functional variable
+    // values when the functional variable is the head's first or second argument.
+    LongHashSet pairs = new LongHashSet();
+    LongHashSet subjects = new LongHashSet();
+    LongHashSet objects = new LongHashSet();
+    int size = 0;
+
+    public void add(int s, int o){
+        this.pairs.add(CsrRelation.pack(s, o));
+        this.subjects.add(s);
+        this.objects.add(o);
+        this.size++;
+    }
+
+    public static HeadIndex from_relation(CsrRelation relation){
+        HeadIndex index = new HeadIndex();
+        for (int k = 0; k < relation.out_keys.length; ++k)
+            for (int e = relation.out_offsets[k]; e < relation.out_offsets[k + 1]; ++e)
+                index.add(relation.out_keys[k], relation.out_targets[e]);
+        return index;
+    }
+
+    public ArrayList<Double> score(Rule rule, LongHashSet bodyPairs){
+        /**
+         Computes the head coverage and PCA confidence of a rule from its body bindings.
+         @param rule the rule, whose head predicate this index was built from
+         @param bodyPairs distinct (fv, nfv) body bindings packed with CsrRelation.pack
+         @return An ArrayList of two Double values, representing the HC and PCA respectively.
+         */
+        return metrics(count(rule, bodyPairs));
+    }
+
+    public long[] count(Rule rule, LongHashSet bodyPairs){
+        /**
+         @return the support, the number of head pairs and the PCA denominator of the rule
+         */
+        boolean fv_is_subject = InMemoryRuleQuery.variable(rule.head_atom.variable1).equals(rule.functional_variable);
+        LongHashSet head_fvs = fv_is_subject ? this.subjects : this.objects;
+        long[] counts = {0, this.size, 0};
+
+        bodyPairs.forEach(pair -> {
+            int fv = CsrRelation.first(pair), nfv = CsrRelation.second(pair);
+            if (this.pairs.contains(fv_is_subject ? pair : CsrRelation.pack(nfv, fv)))
+                counts[0]++;
+            if (head_fvs.contains(fv))
+                counts[2]++;
+        });
+
+        RunMetrics.rows(bodyPairs.size());
+        System.out.println("\tBody pairs size: " + bodyPairs.size());
+        System.out.println("\tHead size: " + this.size);
+        System.out.println("\tSupport size: " + counts[0]);
+        System.out.println("\tPCA size: " + counts[2]);
+        return counts;
+    }
+
+    public static ArrayList<Double> metrics(long[] counts){
+        /**
+         @param counts support, head pairs and PCA denominator as returned by count
+         @return An ArrayList of two Double values, representing the HC and PCA respectively.
+         */
+        ArrayList<Double> metrics = new ArrayList<>();
+        metrics.add((1.0*counts[0])/counts[1]);
+        metrics.add((1.0*counts[0])/counts[2]);
+        return metrics;
+    }
+}
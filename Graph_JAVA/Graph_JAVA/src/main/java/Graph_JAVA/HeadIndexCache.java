@@ -0,0 +1,30 @@
+package Graph_JAVA;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class HeadIndexCache {
+
+    // Shares one HeadIndex between all rules of a head predicate. An index is dropped as soon as the last rule of its
+    // predicate is released, so only the predicates currently being evaluated hold memory.
+    Map<String, HeadIndex> indexes = new ConcurrentHashMap<>();
+    Map<String, AtomicInteger> remaining = new ConcurrentHashMap<>();
+
+    public HeadIndexCache(List<Rule> rules){
+        for (Rule rule: rules)
+            this.remaining.computeIfAbsent(rule.head_atom.relationship, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public HeadIndex acquire(Rule rule, Function<String, HeadIndex> builder){
+        return this.indexes.computeIfAbsent(rule.head_atom.relationship, builder);
+    }
+
+    public void release(Rule rule){
+        String predicate = rule.head_atom.relationship;
+        if (this.remaining.get(predicate).decrementAndGet() == 0)
+            this.indexes.remove(predicate);
+    }
+}
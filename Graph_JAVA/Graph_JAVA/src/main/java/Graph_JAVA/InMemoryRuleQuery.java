@@ -0,0 +1,62 @@
+package Graph_JAVA;
+
+import java.util.*;
+
+public class InMemoryRuleQuery {
+
+    public static String variable(String name){
+        return name.replace("?", "");
+    }
+
+    public static LongHashSet get_body_pairs(Rule rule_to_query, CsrGraph graph){
+        /**
+         Evaluates the body of a rule against the in-memory graph, the equivalent of the Cypher body query in RuleQuery.query_rule.
+         @param rule_to_query the rule whose body atoms are joined
+         @param graph the graph holding every relation used by the rule
+         @return the distinct bindings of the body as (functional variable, non functional variable) pairs packed with CsrRelation.pack
+         */
+        return LeapfrogJoin.compile(rule_to_query.body_atoms, graph, rule_to_query.functional_variable).distinct_pairs();
+    }
+
+    public static ArrayList<Double> query_rule(Rule rule_to_query, CsrGraph graph){
+        /**
+
+         In-memory counterpart of RuleQuery.query_rule: returns the head coverage (HC) and PCA confidence of the rule
+         computed over CSR adjacency instead of an embedded Neo4j database.
+         @param rule_to_query The rule to be queried.
+         @param graph The graph holding the materialized triples.
+         @return An ArrayList of two Double values, representing the HC and PCA respectively.
+         */
+        RunMetrics.phase(RunMetrics.HEAD_QUERY, "Running head query");
+        HeadIndex head_index = HeadIndex.from_relation(graph.relation(rule_to_query.head_atom.relationship));
+        return query_rule(rule_to_query, graph, head_index);
+    }
+
+    public static ArrayList<Double> query_rule(Rule rule_to_query, CsrGraph graph, HeadIndex head_index){
+        return query_rule(rule_to_query, graph, head_index, null);
+    }
+
+    public static ArrayList<Double> query_rule(Rule rule_to_query, CsrGraph graph, HeadIndex head_index, BodyPatternCache body_cache){
+        /**
+         Scores a rule against a head index that may be shared by every rule with the same head predicate.
+         @param rule_to_query The rule to be queried.
+         @param graph The graph holding the materialized triples.
+         @param head_index the index of the rule's head relation
+         @param body_cache results of equivalent bodies evaluated earlier, or null to always evaluate the body
+         @return An ArrayList of two Double values, representing the HC and PCA respectively.
+         */
+        return HeadIndex.metrics(count_rule(rule_to_query, graph, head_index, body_cache));
+    }
+
+    public static long[] count_rule(Rule rule_to_query, CsrGraph graph, HeadIndex head_index, BodyPatternCache body_cache){
+        /**
+         Same as query_rule, but returns the counts behind the metrics, see HeadIndex.count.
+         */
+        RunMetrics.phase(RunMetrics.BODY_QUERY, "Running body query");
+        LongHashSet bodyPairs = body_cache == null ? get_body_pairs(rule_to_query, graph) :
+                body_cache.get_body_pairs(rule_to_query, () -> get_body_pairs(rule_to_query, graph));
+
+        RunMetrics.phase(RunMetrics.PCA, "Computing PCA");
+        return head_index.count(rule_to_query, bodyPairs);
+    }
+}
@@ -0,0 +1,200 @@
+package Graph_JAVA;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class IncrementalEvaluator {
+
+    // Re-scores rules against a new version of the graph from the counts of the previous run. Relations are diffed
+    // against the previous graph: a rule none of whose relations changed keeps its counts, a rule whose head relation
+    // alone changed is updated from the added and removed head pairs, and a rule with a changed body relation is
+    // evaluated again. Counts are the support, head pairs and PCA denominator of HeadIndex.count.
+
+    public interface RuleCounter {
+        long[] count(Rule rule) throws Exception;
+    }
+
+    CsrGraph previous;
+    CsrGraph graph;
+    Map<String, long[]> state;
+    Set<Integer> changed = new HashSet<>();
+    Map<Integer, long[][]> diffs = new ConcurrentHashMap<>();
+    Map<String, long[]> next_state = new ConcurrentHashMap<>();
+
+    public IncrementalEvaluator(CsrGraph previous, CsrGraph graph, Map<String, long[]> state){
+        /**
+         @param previous the graph the state was computed on, or null to evaluate every rule
+         @param graph the graph to score against
+         @param state counts per rule_key from the previous run, or null
+         */
+        this.previous = previous;
+        this.graph = graph;
+        this.state = state;
+        if (previous == null)
+            return;
+
+        Set<Integer> predicates = new HashSet<>(previous.relations.keySet());
+        predicates.addAll(graph.relations.keySet());
+        for (int p: predicates){
+            CsrRelation before = previous.relation(p), after = graph.relation(p);
+            if (!Arrays.equals(before.out_keys, after.out_keys) || !Arrays.equals(before.out_offsets, after.out_offsets) ||
+                    !Arrays.equals(before.out_targets, after.out_targets))
+                this.changed.add(p);
+        }
+        System.out.println("Relations changed since the previous run: " + this.changed.size() + "/" + predicates.size());
+    }
+
+    public static String rule_key(Rule rule){
+        return rule.functional_variable + "\t" + rule.id_print();
+    }
+
+    public ArrayList<Double> query_rule(Rule rule, RuleCounter full_evaluation) throws Exception {
+        /**
+         @param rule the rule to score
+         @param full_evaluation counts the rule from scratch on graph when its counts cannot be updated
+         @return An ArrayList of two Double values, representing the HC and PCA respectively.
+         */
+        String key = rule_key(rule);
+        long[] old_counts = this.state == null || this.previous == null ? null : this.state.get(key);
+        int head = Integer.parseInt(rule.head_atom.relationship);
+
+        long[] counts;
+        if (old_counts == null || body_changed(rule))
+            counts = full_evaluation.count(rule);
+        else if (!this.changed.contains(head)){
+            System.out.println("\tRelations unchanged, reusing counts");
+            counts = old_counts;
+        }
+        else{
+            System.out.println("\tOnly the head relation changed, updating counts");
+            counts = update_head(rule, old_counts);
+        }
+
+        this.next_state.put(key, counts);
+        return HeadIndex.metrics(counts);
+    }
+
+    private boolean body_changed(Rule rule){
+        for (Atom atom: rule.body_atoms)
+            if (this.changed.contains(Integer.parseInt(atom.relationship)))
+                return true;
+        return false;
+    }
+
+    private long[] update_head(Rule rule, long[] old_counts){
+        // The body bindings are the same in both graphs, so only head pairs that appeared or disappeared can change the
+        // support, and only functional variable values that entered or left the head can change the PCA denominator.
+        int head = Integer.parseInt(rule.head_atom.relationship);
+        CsrRelation before = this.previous.relation(head), after = this.graph.relation(head);
+        long[][] diff = this.diffs.computeIfAbsent(head, p -> diff(before, after));
+        boolean fv_is_subject = InMemoryRuleQuery.variable(rule.head_atom.variable1).equals(rule.functional_variable);
+        LeapfrogJoin body = LeapfrogJoin.compile(rule.body_atoms, this.graph, rule.functional_variable);
+
+        long support = old_counts[0];
+        long pca = old_counts[2];
+        LongHashSet candidates = new LongHashSet();
+        for (int k = 0; k < 2; ++k){
+            for (long pair: diff[k]){
+                int fv = fv_is_subject ? CsrRelation.first(pair) : CsrRelation.second(pair);
+                int nfv = fv_is_subject ? CsrRelation.second(pair) : CsrRelation.first(pair);
+                if (body.exists(fv, nfv))
+                    support += k == 0 ? 1 : -1;
+                candidates.add(fv);
+            }
+        }
+
+        long[] delta = {0};
+        candidates.forEach(value -> {
+            int fv = (int) value;
+            boolean was_head = fv_is_subject ? before.out_index(fv) >= 0 : before.in_index(fv) >= 0;
+            boolean is_head = fv_is_subject ? after.out_index(fv) >= 0 : after.in_index(fv) >= 0;
+            if (was_head == is_head)
+                return;
+            long[] bindings = {0};
+            body.for_each_nfv(fv, (x, nfv) -> bindings[0]++);
+            delta[0] += is_head ? bindings[0] : -bindings[0];
+        });
+        pca += delta[0];
+
+        System.out.println("\tHead pairs added: " + diff[0].length + ", removed: " + diff[1].length);
+        System.out.println("\tSupport size: " + support);
+        System.out.println("\tPCA size: " + pca);
+        return new long[]{support, after.edge_count(), pca};
+    }
+
+    static long[][] diff(CsrRelation before, CsrRelation after){
+        /**
+         @return the (s, o) pairs of after missing from before, and those of before missing from after
+         */
+        long[] old_pairs = pairs(before), new_pairs = pairs(after);
+        long[] added = new long[new_pairs.length], removed = new long[old_pairs.length];
+        int i = 0, j = 0, n_added = 0, n_removed = 0;
+        while (i < old_pairs.length || j < new_pairs.length){
+            if (j == new_pairs.length || (i < old_pairs.length && old_pairs[i] < new_pairs[j]))
+                removed[n_removed++] = old_pairs[i++];
+            else if (i == old_pairs.length || new_pairs[j] < old_pairs[i])
+                added[n_added++] = new_pairs[j++];
+            else{
+                ++i;
+                ++j;
+            }
+        }
+        return new long[][]{Arrays.copyOf(added, n_added), Arrays.copyOf(removed, n_removed)};
+    }
+
+    private static long[] pairs(CsrRelation relation){
+        // Sorted, since the CSR keys and each target list are sorted and ids are non negative.
+        long[] pairs = new long[relation.edge_count()];
+        int n = 0;
+        for (int k = 0; k < relation.out_keys.length; ++k)
+            for (int e = relation.out_offsets[k]; e < relation.out_offsets[k + 1]; ++e)
+                pairs[n++] = CsrRelation.pack(relation.out_keys[k], relation.out_targets[e]);
+        return pairs;
+    }
+
+    public static Map<String, long[]> read_state(String state_path) throws IOException {
+        /**
+         @return the counts written by write_state, or null if there is no state file
+         */
+        if (!new File(state_path).exists())
+            return null;
+        Map<String, long[]> state = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(state_path))){
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4)
+                    continue;
+                state.put(fields[3], new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+            }
+        }
+        return state;
+    }
+
+    public void write_state(String state_path) throws IOException {
+        /**
+         Stores the counts of this run as "support heads pca fv rule" lines, replacing the file only once it is complete.
+         */
+        File temp = new File(state_path + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp))){
+            for (Map.Entry<String, long[]> entry: this.next_state.entrySet()){
+                long[] counts = entry.getValue();
+                writer.write(counts[0] + "\t" + counts[1] + "\t" + counts[2] + "\t" + entry.getKey() + "\n");
+            }
+        }
+        Files.move(temp.toPath(), new File(state_path).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
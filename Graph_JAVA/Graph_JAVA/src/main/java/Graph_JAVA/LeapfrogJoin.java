@@ -0,0 +1,338 @@
+package Graph_JAVA;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LeapfrogJoin {
+
+    // Leapfrog triejoin over the sorted CSR adjacency of each body atom. Variables are bound one at a time; the candidates
+    // of a variable are the intersection of one sorted list per atom containing it: the keys of the atom's index when the
+    // atom's other variable is not bound yet, or the neighbours of the already bound value otherwise.
+    // Only the (fv, nfv) projection is produced, so variables ordered after both of them are existential: the search
+    // below the last output variable stops at the first witness, and an (fv, nfv) pair already produced is not searched again.
+
+    static final int KEYS_OUT = 0, KEYS_IN = 1, NEIGHBORS_OUT = 2, NEIGHBORS_IN = 3;
+
+    public interface PairSink {
+        void accept(int fv, int nfv);
+    }
+
+    CsrRelation[] relations;
+    int[] first;
+    int[] second;
+    int n_variables;
+    int fv_slot;
+    int nfv_slot;
+
+    // Per level: the variable bound there, and one iterator (atom, mode) per atom constraining it.
+    int[] level_variable;
+    int[][] level_atoms;
+    int[][] level_modes;
+    int[][] level_loops;
+    int last_output_level;
+    boolean unsatisfiable;
+
+    // Search state, reused across calls; a compiled join is not thread safe.
+    int[] binding;
+    int[] fixed;
+    int[][][] iterator_arrays;
+    int[][] iterator_pos;
+    int[][] iterator_end;
+    int[][] iterator_order;
+    LongHashSet produced;
+    PairSink sink;
+
+    public static LeapfrogJoin compile(List<Atom> body_atoms, CsrGraph graph, String functional_variable){
+        /**
+         Prepares the join of a rule body over the graph.
+         @param body_atoms the atoms to join; variables may carry the AMIE "?" prefix
+         @param graph the graph holding the atoms' relations
+         @param functional_variable "a" or "b"; the other one is the non functional variable
+         @return a join producing distinct (fv, nfv) bindings
+         */
+        String nfv = functional_variable.equals("a") ? "b" : "a";
+        List<String> variables = new ArrayList<>();
+        variables.add(functional_variable);
+        variables.add(nfv);
+
+        int n_atoms = body_atoms.size();
+        LeapfrogJoin join = new LeapfrogJoin();
+        join.relations = new CsrRelation[n_atoms];
+        join.first = new int[n_atoms];
+        join.second = new int[n_atoms];
+        for (int i = 0; i < n_atoms; ++i){
+            Atom atom = body_atoms.get(i);
+            join.relations[i] = graph.relation(atom.relationship);
+            join.first[i] = slot(variables, InMemoryRuleQuery.variable(atom.variable1));
+            join.second[i] = slot(variables, InMemoryRuleQuery.variable(atom.variable2));
+        }
+        join.n_variables = variables.size();
+        join.fv_slot = 0;
+        join.nfv_slot = 1;
+        join.plan();
+        return join;
+    }
+
+    private static int slot(List<String> variables, String name){
+        int idx = variables.indexOf(name);
+        if (idx < 0){
+            variables.add(name);
+            idx = variables.size() - 1;
+        }
+        return idx;
+    }
+
+    private void plan(){
+        int n_atoms = this.relations.length;
+        int[] order = new int[this.n_variables];
+        int[] level_of = new int[this.n_variables];
+        boolean[] placed = new boolean[this.n_variables];
+
+        // fv first, then the variable joined to the most bound variables; ties go to nfv, then to the smallest relation.
+        for (int level = 0; level < this.n_variables; ++level){
+            int best = -1;
+            long best_links = -1, best_size = Long.MAX_VALUE;
+            for (int v = 0; v < this.n_variables; ++v){
+                if (placed[v])
+                    continue;
+                long links = 0, size = Long.MAX_VALUE;
+                for (int i = 0; i < n_atoms; ++i){
+                    if (this.first[i] != v && this.second[i] != v)
+                        continue;
+                    int other = this.first[i] == v ? this.second[i] : this.first[i];
+                    if (other != v && placed[other])
+                        links++;
+                    size = Math.min(size, this.relations[i].edge_count());
+                }
+                boolean better = level == 0 ? v == this.fv_slot :
+                        links > best_links || (links == best_links && (v == this.nfv_slot || (best != this.nfv_slot && size < best_size)));
+                if (best < 0 || better){
+                    best = v;
+                    best_links = links;
+                    best_size = size;
+                }
+            }
+            order[level] = best;
+            level_of[best] = level;
+            placed[best] = true;
+        }
+
+        this.level_variable = order;
+        this.level_atoms = new int[this.n_variables][];
+        this.level_modes = new int[this.n_variables][];
+        this.level_loops = new int[this.n_variables][];
+        this.last_output_level = Math.max(level_of[this.fv_slot], level_of[this.nfv_slot]);
+
+        for (int level = 0; level < this.n_variables; ++level){
+            int v = order[level];
+            List<int[]> iterators = new ArrayList<>();
+            List<Integer> loops = new ArrayList<>();
+            for (int i = 0; i < n_atoms; ++i){
+                int x = this.first[i], y = this.second[i];
+                if (x == v && y == v)
+                    loops.add(i);
+                else if (x == v)
+                    iterators.add(new int[]{i, level_of[y] < level ? NEIGHBORS_IN : KEYS_OUT});
+                else if (y == v)
+                    iterators.add(new int[]{i, level_of[x] < level ? NEIGHBORS_OUT : KEYS_IN});
+            }
+            // A variable only used in r(v,v) is constrained by the subjects of r; the self loop is checked afterwards.
+            if (iterators.isEmpty() && !loops.isEmpty())
+                iterators.add(new int[]{loops.get(0), KEYS_OUT});
+            // An output variable missing from the body has no binding, as the Cypher body query would fail.
+            if (iterators.isEmpty())
+                this.unsatisfiable = true;
+
+            this.level_atoms[level] = new int[iterators.size()];
+            this.level_modes[level] = new int[iterators.size()];
+            for (int j = 0; j < iterators.size(); ++j){
+                this.level_atoms[level][j] = iterators.get(j)[0];
+                this.level_modes[level][j] = iterators.get(j)[1];
+            }
+            this.level_loops[level] = loops.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        this.binding = new int[this.n_variables];
+        this.fixed = new int[this.n_variables];
+        this.iterator_arrays = new int[this.n_variables][][];
+        this.iterator_pos = new int[this.n_variables][];
+        this.iterator_end = new int[this.n_variables][];
+        this.iterator_order = new int[this.n_variables][];
+        for (int level = 0; level < this.n_variables; ++level){
+            int k = this.level_atoms[level].length;
+            this.iterator_arrays[level] = new int[k][];
+            this.iterator_pos[level] = new int[k];
+            this.iterator_end[level] = new int[k];
+            this.iterator_order[level] = new int[k];
+        }
+    }
+
+    public LongHashSet distinct_pairs(){
+        /**
+         @return every distinct (fv, nfv) binding of the body, packed with CsrRelation.pack
+         */
+        LongHashSet pairs = new LongHashSet();
+        this.run(-1, -1, pairs, (fv, nfv) -> {});
+        return pairs;
+    }
+
+    public void for_each_pair(PairSink sink){
+        this.run(-1, -1, new LongHashSet(), sink);
+    }
+
+    public void for_each_nfv(int fv_value, PairSink sink){
+        /**
+         Enumerates the distinct bindings of the body with the functional variable fixed to fv_value.
+         */
+        this.run(fv_value, -1, new LongHashSet(), sink);
+    }
+
+    public boolean exists(int fv_value, int nfv_value){
+        /**
+         @return true if the body has a binding with the given functional and non functional variable values
+         */
+        boolean[] found = {false};
+        this.run(fv_value, nfv_value, new LongHashSet(), (fv, nfv) -> found[0] = true);
+        return found[0];
+    }
+
+    private void run(int fv_value, int nfv_value, LongHashSet produced, PairSink sink){
+        Arrays.fill(this.fixed, -1);
+        this.fixed[this.fv_slot] = fv_value;
+        this.fixed[this.nfv_slot] = nfv_value;
+        this.produced = produced;
+        this.sink = sink;
+        if (!this.unsatisfiable)
+            this.search(0);
+        this.produced = null;
+        this.sink = null;
+    }
+
+    private boolean search(int level){
+        // Returns true when a complete binding was found below this level.
+        if (level == this.n_variables){
+            int fv = this.binding[this.fv_slot], nfv = this.binding[this.nfv_slot];
+            if (this.produced.add(CsrRelation.pack(fv, nfv)))
+                this.sink.accept(fv, nfv);
+            return true;
+        }
+
+        int v = this.level_variable[level];
+        int k = this.level_atoms[level].length;
+        int[][] arrays = this.iterator_arrays[level];
+        int[] pos = this.iterator_pos[level], end = this.iterator_end[level], idx = this.iterator_order[level];
+
+        for (int j = 0; j < k; ++j){
+            if (!this.open(level, j))
+                return false;
+        }
+
+        if (this.fixed[v] >= 0){
+            int value = this.fixed[v];
+            for (int j = 0; j < k; ++j)
+                if (Arrays.binarySearch(arrays[j], pos[j], end[j], value) < 0)
+                    return false;
+            return this.visit(level, v, value);
+        }
+
+        // Sort iterators by their current value.
+        for (int j = 0; j < k; ++j)
+            idx[j] = j;
+        for (int a = 1; a < k; ++a)
+            for (int b = a; b > 0 && arrays[idx[b]][pos[idx[b]]] < arrays[idx[b - 1]][pos[idx[b - 1]]]; --b){
+                int tmp = idx[b]; idx[b] = idx[b - 1]; idx[b - 1] = tmp;
+            }
+
+        boolean found = false;
+        int p = 0;
+        int max = arrays[idx[k - 1]][pos[idx[k - 1]]];
+        while (true){
+            int it = idx[p];
+            int value = arrays[it][pos[it]];
+            if (value == max){
+                if (this.visit(level, v, value)){
+                    found = true;
+                    if (level > this.last_output_level)
+                        return true;
+                }
+                pos[it]++;
+            }
+            else {
+                pos[it] = seek(arrays[it], pos[it], end[it], max);
+            }
+            if (pos[it] >= end[it])
+                return found;
+            max = arrays[it][pos[it]];
+            p = (p + 1) % k;
+        }
+    }
+
+    private boolean visit(int level, int v, int value){
+        for (int atom: this.level_loops[level])
+            if (!this.relations[atom].contains(value, value))
+                return false;
+        // Once both output variables are bound, a pair that was already produced needs no further search.
+        if (level == this.last_output_level && level + 1 < this.n_variables){
+            this.binding[v] = value;
+            if (this.produced.contains(CsrRelation.pack(this.binding[this.fv_slot], this.binding[this.nfv_slot])))
+                return true;
+        }
+        this.binding[v] = value;
+        return this.search(level + 1);
+    }
+
+    private boolean open(int level, int j){
+        // Positions iterator j of this level on its sorted list; false if the list is empty.
+        int atom = this.level_atoms[level][j];
+        CsrRelation relation = this.relations[atom];
+        int idx;
+        switch (this.level_modes[level][j]){
+            case KEYS_OUT:
+                this.set(level, j, relation.out_keys, 0, relation.out_keys.length);
+                break;
+            case KEYS_IN:
+                this.set(level, j, relation.in_keys, 0, relation.in_keys.length);
+                break;
+            case NEIGHBORS_OUT:
+                idx = relation.out_index(this.binding[this.first[atom]]);
+                if (idx < 0)
+                    return false;
+                this.set(level, j, relation.out_targets, relation.out_offsets[idx], relation.out_offsets[idx + 1]);
+                break;
+            default:
+                idx = relation.in_index(this.binding[this.second[atom]]);
+                if (idx < 0)
+                    return false;
+                this.set(level, j, relation.in_targets, relation.in_offsets[idx], relation.in_offsets[idx + 1]);
+                break;
+        }
+        return this.iterator_pos[level][j] < this.iterator_end[level][j];
+    }
+
+    private void set(int level, int j, int[] array, int from, int to){
+        this.iterator_arrays[level][j] = array;
+        this.iterator_pos[level][j] = from;
+        this.iterator_end[level][j] = to;
+    }
+
+    static int seek(int[] array, int from, int to, int target){
+        // Galloping search for the first position in [from, to) holding a value >= target.
+        int step = 1, lo = from, hi = from;
+        while (hi < to && array[hi] < target){
+            lo = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        if (hi > to)
+            hi = to;
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if (array[mid] < target)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,106 @@
+package Graph_JAVA;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+public class LongHashSet {
+
+    // Open addressing with linear probing over a primitive table. 0 marks an empty slot, so the key 0 is tracked separately.
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean has_zero;
+
+    public LongHashSet(){
+        this(16);
+    }
+
+    public LongHashSet(int expected_size){
+        int capacity = 16;
+        while (capacity * 0.6 < expected_size)
+            capacity <<= 1;
+        this.table = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private static int hash(long key){
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    public boolean add(long key){
+        if (key == 0){
+            if (this.has_zero)
+                return false;
+            this.has_zero = true;
+            this.size++;
+            return true;
+        }
+
+        int slot = hash(key) & this.mask;
+        while (this.table[slot] != 0){
+            if (this.table[slot] == key)
+                return false;
+            slot = (slot + 1) & this.mask;
+        }
+        this.table[slot] = key;
+        if (++this.size > this.table.length * 0.6)
+            this.grow();
+        return true;
+    }
+
+    public boolean contains(long key){
+        if (key == 0)
+            return this.has_zero;
+
+        int slot = hash(key) & this.mask;
+        while (this.table[slot] != 0){
+            if (this.table[slot] == key)
+                return true;
+            slot = (slot + 1) & this.mask;
+        }
+        return false;
+    }
+
+    private void grow(){
+        long[] old = this.table;
+        this.table = new long[old.length << 1];
+        this.mask = this.table.length - 1;
+        for (long key: old){
+            if (key == 0)
+                continue;
+            int slot = hash(key) & this.mask;
+            while (this.table[slot] != 0)
+                slot = (slot + 1) & this.mask;
+            this.table[slot] = key;
+        }
+    }
+
+    public int size(){
+        return this.size;
+    }
+
+    public void clear(){
+        if (this.size == 0)
+            return;
+        Arrays.fill(this.table, 0L);
+        this.has_zero = false;
+        this.size = 0;
+    }
+
+    public void forEach(LongConsumer consumer){
+        if (this.has_zero)
+            consumer.accept(0L);
+        for (long key: this.table)
+            if (key != 0)
+                consumer.accept(key);
+    }
+
+    public long memory_bytes(){
+        return 8L * this.table.length + 32;
+    }
+}
@@ -0,0 +1,56 @@
+package Graph_JAVA;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class MappedTriples {
+
+    // Triples grouped by predicate; subjects and objects are int views over memory-mapped columns of a BinaryTripleFile.
+    int[] predicates;
+    IntBuffer[] subjects;
+    IntBuffer[] objects;
+
+    public MappedTriples(int[] predicates, IntBuffer[] subjects, IntBuffer[] objects){
+        this.predicates = predicates;
+        this.subjects = subjects;
+        this.objects = objects;
+    }
+
+    public int index_of(int predicate){
+        for (int i = 0; i < this.predicates.length; ++i)
+            if (this.predicates[i] == predicate)
+                return i;
+        return -1;
+    }
+
+    public long triple_count(){
+        long count = 0;
+        for (IntBuffer column: this.subjects)
+            count += column.limit();
+        return count;
+    }
+
+    public HashMap<Integer, ArrayList<ArrayList<Integer>>> to_triple_dict(){
+        /**
+         Expands the mapped columns into the layout returned by RuleQuery.collect_materializations,
+         for the code paths that still consume it.
+         @return triples grouped by predicate, each triple in the form (subject, predicate, object)
+         */
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict = new HashMap<>();
+        for (int i = 0; i < this.predicates.length; ++i){
+            int p = this.predicates[i];
+            IntBuffer s = this.subjects[i], o = this.objects[i];
+            ArrayList<ArrayList<Integer>> triples = new ArrayList<>(s.limit());
+            for (int j = 0; j < s.limit(); ++j){
+                ArrayList<Integer> triple = new ArrayList<>();
+                triple.add(s.get(j));
+                triple.add(p);
+                triple.add(o.get(j));
+                triples.add(triple);
+            }
+            triple_dict.put(p, triples);
+        }
+        return triple_dict;
+    }
+}
@@ -0,0 +1,143 @@
+package Graph_JAVA;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class NegativeTripleGenerator {
+
+    // Negatives of relation r are the (s, o) pairs over the entities of the positives that are not a positive of r. They
+    // are written under relation r + number of relations, as BuildTestGraph expects. Positives are kept as CSR adjacency
+    // with sorted targets, so the complement of a subject is a merge of two sorted lists.
+    int[] nodes;
+    int[] relations;
+    Map<Integer, CsrRelation> positives;
+
+    public interface TripleSink {
+        void accept(int s, int p, int o) throws IOException;
+    }
+
+    private NegativeTripleGenerator(int[] nodes, int[] relations, Map<Integer, CsrRelation> positives){
+        this.nodes = nodes;
+        this.relations = relations;
+        this.positives = positives;
+    }
+
+    public static NegativeTripleGenerator from_triples(ArrayList<ArrayList<Integer>> triples){
+        /**
+         @param triples positive triples in the form (subject, predicate, object)
+         @return a generator over the entities and relations of the triples
+         */
+        BitSet entities = new BitSet();
+        LinkedHashMap<Integer, long[]> pairs = new LinkedHashMap<>();
+        LinkedHashMap<Integer, Integer> sizes = new LinkedHashMap<>();
+        for (ArrayList<Integer> triple: triples){
+            int s = triple.get(0);
+            int p = triple.get(1);
+            int o = triple.get(2);
+            entities.set(s);
+            entities.set(o);
+
+            long[] list = pairs.computeIfAbsent(p, k -> new long[16]);
+            int size = sizes.getOrDefault(p, 0);
+            if (size == list.length){
+                list = Arrays.copyOf(list, size * 2);
+                pairs.put(p, list);
+            }
+            list[size] = CsrRelation.pack(s, o);
+            sizes.put(p, size + 1);
+        }
+
+        // Relations keep the order in which they first appear, which decides nothing but the order of the output.
+        int[] relations = new int[pairs.size()];
+        Map<Integer, CsrRelation> positives = new LinkedHashMap<>();
+        int i = 0;
+        for (Map.Entry<Integer, long[]> entry: pairs.entrySet()){
+            relations[i++] = entry.getKey();
+            positives.put(entry.getKey(), CsrRelation.from_pairs(entry.getKey(), entry.getValue(), sizes.get(entry.getKey())));
+        }
+        return new NegativeTripleGenerator(entities.stream().toArray(), relations, positives);
+    }
+
+    public int negative_relation(int r){
+        return r + this.relations.length;
+    }
+
+    public long complement_size(int r){
+        return (long) this.nodes.length * this.nodes.length - this.positives.get(r).edge_count();
+    }
+
+    public void generate(long budget_per_relation, Random random, TripleSink sink) throws IOException {
+        /**
+         Streams the negatives of every relation to sink.
+         @param budget_per_relation the number of negatives to draw uniformly per relation; 0 streams the whole complement
+         @param random the source of the sample
+         @param sink receives (subject, negative relation, object)
+         */
+        for (int r: this.relations){
+            long complement = complement_size(r);
+            if (budget_per_relation <= 0 || budget_per_relation >= complement)
+                for_each_negative(r, sink);
+            else if (budget_per_relation * 2 > complement)
+                reservoir_sample(r, (int) budget_per_relation, random, sink);
+            else
+                rejection_sample(r, (int) budget_per_relation, random, sink);
+        }
+    }
+
+    private void for_each_negative(int r, TripleSink sink) throws IOException {
+        CsrRelation relation = this.positives.get(r);
+        int negative = negative_relation(r);
+        for (int s: this.nodes){
+            int index = relation.out_index(s);
+            int t = index < 0 ? 0 : relation.out_offsets[index];
+            int end = index < 0 ? 0 : relation.out_offsets[index + 1];
+            for (int o: this.nodes){
+                while (t < end && relation.out_targets[t] < o)
+                    ++t;
+                if (t < end && relation.out_targets[t] == o)
+                    continue;
+                sink.accept(s, negative, o);
+            }
+        }
+    }
+
+    private void reservoir_sample(int r, int budget, Random random, TripleSink sink) throws IOException {
+        // Most of the complement is wanted: one pass keeping a uniform sample of budget negatives.
+        long[] reservoir = new long[budget];
+        long[] seen = {0};
+        for_each_negative(r, (s, p, o) -> {
+            long pair = CsrRelation.pack(s, o);
+            if (seen[0] < budget)
+                reservoir[(int) seen[0]] = pair;
+            else {
+                long slot = (long) (random.nextDouble() * (seen[0] + 1));
+                if (slot < budget)
+                    reservoir[(int) slot] = pair;
+            }
+            ++seen[0];
+        });
+
+        int negative = negative_relation(r);
+        for (long pair: reservoir)
+            sink.accept(CsrRelation.first(pair), negative, CsrRelation.second(pair));
+    }
+
+    private void rejection_sample(int r, int budget, Random random, TripleSink sink) throws IOException {
+        // The complement holds at least twice the budget and positives are sparse in nodes x nodes, so few draws are rejected.
+        CsrRelation relation = this.positives.get(r);
+        int negative = negative_relation(r);
+        LongHashSet drawn = new LongHashSet(budget);
+        while (drawn.size() < budget){
+            int s = this.nodes[random.nextInt(this.nodes.length)];
+            int o = this.nodes[random.nextInt(this.nodes.length)];
+            if (relation.contains(s, o) || !drawn.add(CsrRelation.pack(s, o)))
+                continue;
+            sink.accept(s, negative, o);
+        }
+    }
+}
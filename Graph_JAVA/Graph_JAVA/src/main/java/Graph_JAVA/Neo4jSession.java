@@ -0,0 +1,138 @@
+package Graph_JAVA;
+
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.io.pagecache.monitoring.PageCacheCounters;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+public class Neo4jSession implements AutoCloseable {
+
+    // One embedded database opened for as long as the store is queried, so the page cache stays warm across queries.
+    // Read transactions may run concurrently from several threads.
+    DatabaseManagementService service;
+    GraphDatabaseService db;
+    String store_path;
+
+    private Neo4jSession(String store_path, DatabaseManagementService service){
+        this.store_path = store_path;
+        this.service = service;
+        this.db = service.database("neo4j");
+    }
+
+    public static Neo4jSession open(String path_to_neo4j_database){
+        /**
+         Starts the embedded database of a store.
+         @param path_to_neo4j_database the neo4j home the store was created in
+         @return the open session; close it to shut the database down
+         */
+        return open(path_to_neo4j_database, 1);
+    }
+
+    public static Neo4jSession open(String path_to_neo4j_database, int open_stores){
+        /**
+         Starts the embedded database of one of several stores open at the same time, each with its own page cache.
+         @param open_stores the number of stores open at the same time; they share the -Dpage_cache budget
+         @return the open session; close it to shut the database down
+         */
+        File neo4j_folder = new File(path_to_neo4j_database);
+        String page_cache = page_cache_size(neo4j_folder, open_stores);
+        DatabaseManagementService service = new DatabaseManagementServiceBuilder(neo4j_folder.toPath()).
+                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
+                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).
+                setConfig(GraphDatabaseSettings.pagecache_memory, page_cache).build();
+        return new Neo4jSession(path_to_neo4j_database, service);
+    }
+
+    public static String page_cache_size(File neo4j_folder, int open_stores){
+        /**
+         Sizes the page cache to hold the whole store plus headroom, capped by an equal share of -Dpage_cache if given.
+         @param neo4j_folder the neo4j home of the store
+         @param open_stores the number of stores sharing -Dpage_cache
+         @return a page cache size in the format of GraphDatabaseSettings.pagecache_memory
+         */
+        long store_bytes = 0;
+        if (neo4j_folder.exists()){
+            try (Stream<Path> files = Files.walk(neo4j_folder.toPath())){
+                store_bytes = files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+            } catch (IOException | UncheckedIOException e){
+                e.printStackTrace();
+            }
+        }
+        long megabytes = Math.max(64, (long) (store_bytes * 1.2 / (1 << 20)) + 64);
+
+        String limit = RunConfig.page_cache();
+        long share = limit == null ? Long.MAX_VALUE : Math.max(1, parse_size_mb(limit) / Math.max(1, open_stores));
+        if (share < megabytes)
+            megabytes = share;
+        return megabytes + "M";
+    }
+
+    static long parse_size_mb(String size){
+        /**
+         @param size a number of bytes with an optional K, M, G or T unit, e.g. "512M" or "1.5g"
+         @return the size in whole megabytes, since GraphDatabaseSettings.pagecache_memory does not accept decimals
+         */
+        String value = size.strip().toUpperCase();
+        char unit = value.charAt(value.length() - 1);
+        if (Character.isDigit(unit))
+            return (long) (Double.parseDouble(value) / (1 << 20));
+        double number = Double.parseDouble(value.substring(0, value.length() - 1));
+        switch (unit){
+            case 'K': return (long) (number / (1 << 10));
+            case 'M': return (long) number;
+            case 'G': return (long) (number * (1 << 10));
+            case 'T': return (long) (number * (1 << 20));
+            default: throw new IllegalArgumentException("Unknown size unit in " + size);
+        }
+    }
+
+    public <T> T read(Function<Transaction, T> work){
+        /**
+         Runs work in a transaction that is closed afterwards.
+         @param work the queries to run; they may share the transaction
+         @return the result of work
+         */
+        try (Transaction tx = this.db.beginTx()){
+            return work.apply(tx);
+        }
+    }
+
+    public long[] page_cache_counters(){
+        /**
+         @return the page cache hits and faults since the database started, or null if they cannot be read
+         */
+        try {
+            PageCacheCounters counters = ((GraphDatabaseAPI) this.db).getDependencyResolver().resolveDependency(PageCacheCounters.class);
+            return new long[]{counters.hits(), counters.faults()};
+        } catch (RuntimeException e){
+            return null;
+        }
+    }
+
+    public void record_page_cache(){
+        /**
+         Adds the page cache hits and faults of this database to the RunMetrics of the run, if they can be read.
+         */
+        long[] counters = page_cache_counters();
+        if (counters == null)
+            return;
+        RunMetrics.counter("page_cache_hits", counters[0]);
+        RunMetrics.counter("page_cache_faults", counters[1]);
+    }
+
+    @Override
+    public void close(){
+        this.service.shutdown();
+    }
+}
@@ -0,0 +1,266 @@
+package Graph_JAVA;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+public class OffHeapTripleStore {
+
+    // Triples grouped by predicate, kept outside the heap in direct buffers of CHUNK_TRIPLES triples each, 8 bytes per
+    // triple: the ids of the subject and the object. The last chunk of a predicate grows by doubling from
+    // FIRST_CHUNK_TRIPLES, so small predicates do not hold a whole chunk. Once loaded, every predicate is sorted by
+    // (subject, object) and deduplicated chunk by chunk and merged into new chunks, so the heap only ever holds one
+    // chunk's keys. Entity ids are kept as they are, since the dataset ids are already consecutive, so the store costs
+    // 8 bytes per triple plus a bit per possible id for the set of entities, whatever the number of triples.
+    // The Neo4j imports read the pairs straight from the chunks and stay off the heap. to_csr_graph is the exception:
+    // the in-memory engine and the asymmetry pass work on a CsrGraph, so it copies the graph onto the heap, one
+    // predicate's pairs at a time. Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+    static final int CHUNK_TRIPLES = 1 << 20;
+    static final int FIRST_CHUNK_TRIPLES = 1 << 10;
+
+    Map<Integer, Column> columns = new TreeMap<>();
+    BitSet entities = new BitSet();
+    long triple_count = 0;
+
+    public interface PairVisitor {
+        void visit(int s, int o);
+    }
+
+    private OffHeapTripleStore(){
+    }
+
+    public static OffHeapTripleStore load(String materialization_path, String... dataset_paths) throws IOException {
+        /**
+         Streams the TSV triples into the store, accepting the same files as RuleQuery.collect_materializations.
+         @param materialization_path a materialization TSV with "s p o" lines and no header, or null
+         @param dataset_paths train2id/valid2id/test2id files with a count header and "s o p" lines; null entries are ignored
+         @return the store, holding the distinct triples of each predicate sorted by (subject, object)
+         @throws IOException if an input cannot be read
+         */
+        OffHeapTripleStore store = new OffHeapTripleStore();
+        BinaryTripleFile.TripleVisitor visitor = (s, p, o) -> store.add(s, p, o);
+        BinaryTripleFile.read_tsv(materialization_path, false, visitor);
+        for (String path: dataset_paths)
+            BinaryTripleFile.read_tsv(path, true, visitor);
+        long read = store.triple_count;
+        store.compact();
+        System.out.println("Off-heap triples: " + read + " read, " + store.triple_count + " distinct, entities: " +
+                store.entity_count() + ", direct bytes: " + store.direct_bytes());
+        return store;
+    }
+
+    private void add(int s, int p, int o){
+        this.columns.computeIfAbsent(p, k -> new Column()).add(s, o);
+        this.entities.set(s);
+        this.entities.set(o);
+        this.triple_count++;
+    }
+
+    private void compact(){
+        this.triple_count = 0;
+        for (Map.Entry<Integer, Column> entry: this.columns.entrySet()){
+            Column sorted = entry.getValue().sorted();
+            entry.setValue(sorted);
+            this.triple_count += sorted.size;
+        }
+    }
+
+    public int entity_count(){
+        return this.entities.cardinality();
+    }
+
+    public long triple_count(){
+        return this.triple_count;
+    }
+
+    public long direct_bytes(){
+        long bytes = 0;
+        for (Column column: this.columns.values())
+            for (ByteBuffer chunk: column.chunks)
+                bytes += chunk.capacity();
+        return bytes;
+    }
+
+    public long size(int p){
+        /**
+         @return the number of distinct triples of predicate p
+         */
+        Column column = this.columns.get(p);
+        return column == null ? 0 : column.size;
+    }
+
+    public int[] predicates(){
+        return this.columns.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    Column column(int p){
+        return this.columns.get(p);
+    }
+
+    public void for_each_pair(int p, PairVisitor visitor){
+        /**
+         Visits the distinct (s, o) pairs of predicate p in sorted order, read straight from the direct buffers.
+         */
+        Column column = this.columns.get(p);
+        if (column == null)
+            return;
+        for (long i = 0; i < column.size; ++i)
+            visitor.visit(column.subject(i), column.object(i));
+    }
+
+    public long[] pairs(int p){
+        /**
+         Copies the pairs of predicate p onto the heap, for the CsrGraph of to_csr_graph.
+         @return the distinct (s, o) pairs of predicate p, packed as CsrRelation.pack and sorted
+         */
+        Column column = this.columns.get(p);
+        if (column == null)
+            return new long[0];
+        if (column.size > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Predicate " + p + " has more triples than an array can hold");
+
+        long[] pairs = new long[(int) column.size];
+        for (int i = 0; i < pairs.length; ++i)
+            pairs[i] = column.key(i);
+        return pairs;
+    }
+
+    public CsrGraph to_csr_graph(){
+        /**
+         Builds the in-memory graph one predicate at a time, so only a single predicate's pairs are on the heap besides the graph.
+         @return the graph of the stored triples
+         */
+        Map<Integer, CsrRelation> relations = new HashMap<>();
+        for (int p: this.columns.keySet()){
+            long[] pairs = pairs(p);
+            relations.put(p, CsrRelation.from_pairs(p, pairs, pairs.length));
+        }
+        return new CsrGraph(relations);
+    }
+
+    public BitSet entities(int[] predicates){
+        /**
+         @return the subjects and objects of the triples of those predicates, read straight from the columns
+         */
+        BitSet entities = new BitSet();
+        for (int p: predicates)
+            for_each_pair(p, (s, o) -> {
+                entities.set(s);
+                entities.set(o);
+            });
+        return entities;
+    }
+
+    public static int[] rule_predicates(Rule rule){
+        /**
+         The off-heap counterpart of RuleQuery.collect_materializations_for_rule: the store of a rule is built from the
+         pairs of these predicates.
+         @return the distinct predicates of the head and body relations of rule, sorted
+         */
+        int[] predicates = new int[rule.body_atoms.size() + 1];
+        for (int i = 0; i < rule.body_atoms.size(); ++i)
+            predicates[i] = Integer.parseInt(rule.body_atoms.get(i).relationship);
+        predicates[predicates.length - 1] = Integer.parseInt(rule.head_atom.relationship);
+        return Arrays.stream(predicates).sorted().distinct().toArray();
+    }
+
+    static class Column {
+
+        // Subject and object of triple i are the ints at 8 * (i % CHUNK_TRIPLES) and 4 more in chunk i / CHUNK_TRIPLES.
+        ArrayList<ByteBuffer> chunks = new ArrayList<>();
+        long size = 0;
+
+        void add(int s, int o){
+            int offset = (int) (this.size % CHUNK_TRIPLES);
+            if (offset == 0)
+                this.chunks.add(allocate(FIRST_CHUNK_TRIPLES));
+            ByteBuffer chunk = this.chunks.get(this.chunks.size() - 1);
+            if (8 * offset == chunk.capacity()){
+                ByteBuffer grown = allocate(Math.min(CHUNK_TRIPLES, 2 * offset));
+                grown.put(chunk.duplicate().clear());
+                chunk = grown;
+                this.chunks.set(this.chunks.size() - 1, chunk);
+            }
+            chunk.putInt(8 * offset, s);
+            chunk.putInt(8 * offset + 4, o);
+            this.size++;
+        }
+
+        static ByteBuffer allocate(int triples){
+            return ByteBuffer.allocateDirect(triples * 8).order(ByteOrder.nativeOrder());
+        }
+
+        int subject(long i){
+            return this.chunks.get((int) (i / CHUNK_TRIPLES)).getInt(8 * (int) (i % CHUNK_TRIPLES));
+        }
+
+        int object(long i){
+            return this.chunks.get((int) (i / CHUNK_TRIPLES)).getInt(8 * (int) (i % CHUNK_TRIPLES) + 4);
+        }
+
+        long key(long i){
+            return CsrRelation.pack(subject(i), object(i));
+        }
+
+        Column sorted(){
+            /**
+             Sorts and deduplicates each chunk in place through a heap buffer of one chunk, then merges the chunks into a
+             new column without duplicates; the chunks of this column are released once it is no longer referenced.
+             */
+            long[] keys = new long[(int) Math.min(CHUNK_TRIPLES, this.size)];
+            // End of the sorted, distinct triples of each chunk.
+            long[] ends = new long[this.chunks.size()];
+            for (int c = 0; c < this.chunks.size(); ++c){
+                long start = (long) c * CHUNK_TRIPLES;
+                int n = (int) Math.min(CHUNK_TRIPLES, this.size - start);
+                for (int i = 0; i < n; ++i)
+                    keys[i] = key(start + i);
+                Arrays.sort(keys, 0, n);
+                ByteBuffer chunk = this.chunks.get(c);
+                int distinct = 0;
+                for (int i = 0; i < n; ++i){
+                    if (distinct > 0 && keys[distinct - 1] == keys[i])
+                        continue;
+                    keys[distinct] = keys[i];
+                    chunk.putInt(8 * distinct, CsrRelation.first(keys[i]));
+                    chunk.putInt(8 * distinct + 4, CsrRelation.second(keys[i]));
+                    distinct++;
+                }
+                ends[c] = start + distinct;
+            }
+            if (ends.length == 1){
+                this.size = ends[0];
+                return this;
+            }
+
+            Column merged = new Column();
+            // Cursors into the chunks as {key, position, end}, smallest key first.
+            PriorityQueue<long[]> cursors = new PriorityQueue<>((x, y) -> Long.compare(x[0], y[0]));
+            for (int c = 0; c < ends.length; ++c){
+                long start = (long) c * CHUNK_TRIPLES;
+                if (start < ends[c])
+                    cursors.add(new long[]{key(start), start, ends[c]});
+            }
+            long last = 0;
+            while (!cursors.isEmpty()){
+                long[] cursor = cursors.poll();
+                if (merged.size == 0 || cursor[0] != last){
+                    merged.add(CsrRelation.first(cursor[0]), CsrRelation.second(cursor[0]));
+                    last = cursor[0];
+                }
+                if (++cursor[1] < cursor[2]){
+                    cursor[0] = key(cursor[1]);
+                    cursors.add(cursor);
+                }
+            }
+            return merged;
+        }
+    }
+}
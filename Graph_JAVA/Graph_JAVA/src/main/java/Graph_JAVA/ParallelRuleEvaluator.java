@@ -0,0 +1,102 @@
+package Graph_JAVA;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class ParallelRuleEvaluator {
+
+    public interface RuleTask {
+        ArrayList<Double> evaluate(int index, Rule rule) throws Exception;
+    }
+
+    public interface GroupTask {
+        List<ArrayList<Double>> evaluate(int index, List<Rule> group) throws Exception;
+    }
+
+    public interface ResultWriter {
+        void write(int index, Rule rule, ArrayList<Double> metrics) throws Exception;
+    }
+
+    private interface Unit<T> {
+        T evaluate(int unit) throws Exception;
+    }
+
+    private interface UnitWriter<T> {
+        void write(int unit, T result) throws Exception;
+    }
+
+    public static void evaluate_in_order(List<Rule> rules, int n_threads, RuleTask task, ResultWriter writer) throws Exception {
+        /**
+         Evaluates rules concurrently and hands the results to the writer strictly in rule order.
+         At most a few rules per thread are in flight, so finished results waiting on a slow earlier rule stay bounded.
+         @param rules the rules to evaluate; task must only read shared state
+         @param n_threads the number of worker threads, 1 evaluates on the calling thread
+         @param task computes the metrics of one rule
+         @param writer receives (index, rule, metrics) in the order of rules
+         @throws Exception the first failure of task or writer; remaining rules are cancelled
+         */
+        run_in_order(rules.size(), n_threads, i -> task.evaluate(i, rules.get(i)), (i, metrics) -> writer.write(i, rules.get(i), metrics));
+    }
+
+    public static void evaluate_groups_in_order(List<List<Rule>> groups, int n_threads, GroupTask task, ResultWriter writer) throws Exception {
+        /**
+         Like evaluate_in_order with a group of rules as the unit of work, e.g. the rules of one head predicate.
+         @param groups consecutive groups of the rules, in rule order
+         @param task computes the metrics of every rule of a group, given the index of its first rule
+         @param writer receives (index, rule, metrics) for every rule, in rule order
+         */
+        int[] first = new int[groups.size()];
+        for (int g = 1; g < groups.size(); ++g)
+            first[g] = first[g - 1] + groups.get(g - 1).size();
+        run_in_order(groups.size(), n_threads, g -> task.evaluate(first[g], groups.get(g)), (g, metrics) -> {
+            List<Rule> group = groups.get(g);
+            for (int i = 0; i < group.size(); ++i)
+                writer.write(first[g] + i, group.get(i), metrics.get(i));
+        });
+    }
+
+    private static <T> void run_in_order(int n_units, int n_threads, Unit<T> unit, UnitWriter<T> writer) throws Exception {
+        if (n_threads <= 1){
+            for (int i = 0; i < n_units; ++i)
+                writer.write(i, unit.evaluate(i));
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(n_threads, runnable -> {
+            Thread thread = new Thread(runnable, "rule-evaluator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int window = n_threads * 4;
+        List<Future<T>> pending = new ArrayList<>();
+
+        try {
+            int submitted = 0;
+            for (; submitted < Math.min(window, n_units); ++submitted)
+                pending.add(submit(pool, unit, submitted));
+
+            for (int i = 0; i < n_units; ++i){
+                T result;
+                try {
+                    result = pending.get(i).get();
+                } catch (ExecutionException e){
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                pending.set(i, null);
+                writer.write(i, result);
+
+                if (submitted < n_units){
+                    pending.add(submit(pool, unit, submitted));
+                    submitted++;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> Future<T> submit(ExecutorService pool, Unit<T> unit, int index){
+        return pool.submit(() -> unit.evaluate(index));
+    }
+}
@@ -0,0 +1,101 @@
+package Graph_JAVA;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class RuleClasses {
+
+    // Rules with the same CanonicalForm.rule_key have the same HC and PCA, so only one rule of each class is scored and
+    // the others are given its metrics. The representative of a class is its first rule in evaluation order; the other
+    // members are not evaluated at all, and since results are written in rule order, the representative's metrics are
+    // always known by the time a member is written. Caches counting the rules still to evaluate, like HeadIndexCache,
+    // are built from representatives().
+    Map<Rule, String> keys = new IdentityHashMap<>();
+    Map<String, Rule> representatives = new HashMap<>();
+    Map<String, ArrayList<Double>> written = new ConcurrentHashMap<>();
+
+    public RuleClasses(List<Rule> rules){
+        for (Rule rule: rules){
+            String key = CanonicalForm.rule_key(rule);
+            this.keys.put(rule, key);
+            this.representatives.putIfAbsent(key, rule);
+        }
+        System.out.println("Rule equivalence classes: " + this.representatives.size() + " for " + rules.size() + " rules");
+    }
+
+    public boolean is_representative(Rule rule){
+        return representative(rule) == rule;
+    }
+
+    public Rule representative(Rule rule){
+        /**
+         @return the rule whose evaluation gives rule its metrics, rule itself if it is scored
+         */
+        return this.representatives.get(this.keys.get(rule));
+    }
+
+    public List<Rule> representatives(List<Rule> rules){
+        /**
+         @return the representatives among rules, in the same order
+         */
+        List<Rule> representatives = new ArrayList<>();
+        for (Rule rule: rules)
+            if (is_representative(rule))
+                representatives.add(rule);
+        return representatives;
+    }
+
+    public ParallelRuleEvaluator.RuleTask deduplicate(ParallelRuleEvaluator.RuleTask task){
+        /**
+         @param task scores one rule
+         @return a task scoring representatives only; members get null, which deduplicate(writer) replaces
+         */
+        return (index, rule) -> {
+            if (is_representative(rule))
+                return task.evaluate(index, rule);
+            System.out.println("\tEquivalent to " + representative(rule).id_print() + ", reusing its metrics");
+            return null;
+        };
+    }
+
+    public ParallelRuleEvaluator.GroupTask deduplicate(ParallelRuleEvaluator.GroupTask task){
+        /**
+         @param task scores a group of rules
+         @return a task scoring the representatives of a group only; members get null, which deduplicate(writer) replaces
+         */
+        return (index, group) -> {
+            List<Rule> representatives = representatives(group);
+            List<ArrayList<Double>> scored = representatives.isEmpty() ? new ArrayList<>() : task.evaluate(index, representatives);
+            List<ArrayList<Double>> metrics = new ArrayList<>();
+            int next = 0;
+            for (Rule rule: group){
+                if (is_representative(rule))
+                    metrics.add(scored.get(next++));
+                else {
+                    System.out.println("\tEquivalent to " + representative(rule).id_print() + ", reusing its metrics");
+                    metrics.add(null);
+                }
+            }
+            return metrics;
+        };
+    }
+
+    public ParallelRuleEvaluator.ResultWriter deduplicate(ParallelRuleEvaluator.ResultWriter writer){
+        /**
+         @param writer writes the metrics of one rule
+         @return a writer handing members the metrics written for their representative
+         */
+        return (index, rule, metrics) -> {
+            String key = this.keys.get(rule);
+            if (is_representative(rule))
+                this.written.put(key, metrics);
+            else
+                metrics = this.written.get(key);
+            writer.write(index, rule, metrics);
+        };
+    }
+}
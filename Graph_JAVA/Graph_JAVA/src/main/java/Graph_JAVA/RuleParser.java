@@ -1,7 +1,7 @@
 package Graph_JAVA;
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class RuleParser {
 
@@ -52,41 +52,18 @@ public class RuleParser {
         }
     }
 
-    public void parse_rules_from_file(double beta) throws FileNotFoundException {
-        Scanner sc = new Scanner(new File(this.filename));
-        int num_lines = 0;
-
-        while(sc.hasNextLine()){
-            sc.nextLine();
-            num_lines++;
-        }
-
-        sc.close();
-        sc = new Scanner(new File(this.filename));
-        for(int ctr = 0; ctr<15; ++ctr){
-            sc.nextLine();
-        }
-
-        for(int ctr=15; ctr<num_lines-3; ++ctr){
-            String line = sc.nextLine();
-            String splits[] = line.strip().split("\t");
-            String functional_variable = splits[splits.length-1].replace("?", "");
-            List<Atom> body_atoms = this.create_body_from_rule(splits[0]);
-            Atom head_atom = this.create_head_from_rule(splits[0]);
-            double hc = Double.parseDouble(splits[1]);
-            double pca = Double.parseDouble(splits[3]);
-
-            String relationship_id = head_atom.relationship;
+    public void parse_rules_from_file(double beta) throws IOException {
+        this.stream_rules_from_file(beta, rule -> {
+            String relationship_id = rule.head_atom.relationship;
 
             if (!this.rules_by_predicate.containsKey(relationship_id)){
                 List<Rule> rules = new ArrayList<>();
                 this.rules_by_predicate.put(relationship_id, rules);
             }
 
-            Rule rule = new Rule(head_atom, body_atoms, hc, pca, functional_variable, beta);
             this.rules_by_predicate.get(relationship_id).add(rule);
             this.rules.add(rule);
-        }
+        });
 
         for(String predicate: this.rules_by_predicate.keySet()){
             Collections.sort(this.rules_by_predicate.get(predicate), new Comparator<Rule>(){
@@ -105,35 +82,89 @@ public class RuleParser {
         }
     }
 
-    public List<Atom> create_body_from_rule(String rule){
-        String splits[] = rule.split(" ");
+    public void stream_rules_from_file(double beta, Consumer<Rule> consumer) throws IOException {
+        /**
+         Reads the AMIE output once and hands every rule to the consumer as soon as its line is parsed.
+         Header and footer lines are recognised by content rather than by position. Nothing is kept, so this suits
+         callers that look at each rule once; RuleQuery.score_model needs the whole list for the checkpoint
+         fingerprint, grouping by head, deduplication and the rules of each head, and uses parse_rules_from_file.
+         @param beta the beta of the F-beta selectivity of each rule
+         @param consumer receives the rules in file order
+         @throws IOException if the rule file cannot be read
+         */
+        try (BufferedReader reader = new BufferedReader(new FileReader(this.filename), 1 << 16)){
+            String line;
+            while ((line = reader.readLine()) != null){
+                Rule rule = this.parse_rule_line(line, beta);
+                if (rule != null)
+                    consumer.accept(rule);
+            }
+        }
+    }
 
-//        System.out.println(rule);
-        int body_atom_end_index = Arrays.asList(splits).indexOf("");
+    public Rule parse_rule_line(String line, double beta){
+        /**
+         Parses one line of AMIE output: the rule, head coverage, std confidence, PCA confidence, ..., functional variable.
+         @return the rule, or null if the line is a header, footer or blank line
+         */
+        String splits[] = line.strip().split("\t");
+        if (splits.length < 4 || !splits[0].contains("=>"))
+            return null;
+
+        double hc, pca;
+        try {
+            hc = Double.parseDouble(splits[1]);
+            pca = Double.parseDouble(splits[3]);
+        } catch (NumberFormatException e){
+            return null;
+        }
+
+        String functional_variable = splits[splits.length-1].replace("?", "");
+        List<Atom> body_atoms = this.create_body_from_rule(splits[0]);
+        Atom head_atom = this.create_head_from_rule(splits[0]);
+        return new Rule(head_atom, body_atoms, hc, pca, functional_variable, beta);
+    }
+
+    private Atom parse_atom(String rule, int start, int end){
+        // Single scan of "relationship(variable1,variable2)" between start and end.
+        int open = start, comma, close;
+        while (rule.charAt(open) != '(')
+            open++;
+        comma = open + 1;
+        while (rule.charAt(comma) != ',')
+            comma++;
+        close = comma + 1;
+        while (close < end && rule.charAt(close) != ')')
+            close++;
+
+        String relationship_id = rule.substring(start, open);
+        String relationship_name = this.id_to_relationship.get(relationship_id);
+        return new Atom(relationship_id, rule.substring(open + 1, comma), rule.substring(comma + 1, close), relationship_name);
+    }
 
+    public List<Atom> create_body_from_rule(String rule){
         List<Atom> body_atoms = new ArrayList<>();
+        int arrow = rule.indexOf("=>");
 
-        for(int i=0; i< body_atom_end_index; ++i){
-            String atom_string = splits[i];
-            String relationship_id = atom_string.substring(0, atom_string.indexOf("("));
-            String variable1 = atom_string.substring(atom_string.indexOf("(")+1, atom_string.indexOf(","));
-            String variable2 = atom_string.substring(atom_string.indexOf(",")+1, atom_string.indexOf(")"));
-            String relationship_name = this.id_to_relationship.get(relationship_id);
-            body_atoms.add(new Atom(relationship_id, variable1, variable2, relationship_name));
+        int i = 0;
+        while (i < arrow){
+            if (rule.charAt(i) == ' '){
+                i++;
+                continue;
+            }
+            int end = rule.indexOf(' ', i);
+            if (end < 0 || end > arrow)
+                end = arrow;
+            body_atoms.add(this.parse_atom(rule, i, end));
+            i = end;
         }
 
         return body_atoms;
     }
 
     public Atom create_head_from_rule(String rule){
-        String splits[] = rule.split(" ");
-        String atom_string = splits[splits.length-1];
-        String relationship_id = atom_string.substring(0, atom_string.indexOf("("));
-        String variable1 = atom_string.substring(atom_string.indexOf("(")+1, atom_string.indexOf(","));
-        String variable2 = atom_string.substring(atom_string.indexOf(",")+1, atom_string.indexOf(")"));
-        String relationship_name = this.id_to_relationship.get(relationship_id);
-
-        return new Atom(relationship_id, variable1, variable2, relationship_name);
-
+        String trimmed = rule.stripTrailing();
+        int start = trimmed.lastIndexOf(' ') + 1;
+        return this.parse_atom(trimmed, start, trimmed.length());
     }
 }
@@ -0,0 +1,102 @@
+package Graph_JAVA;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RulePipeline {
+
+    // Three overlapping stages over the rules: prepare builds what a rule needs, such as its store, evaluate scores it
+    // and a writer hands the results to a ResultWriter in rule order. Rules move between stages through a bounded queue,
+    // so only about queue_size rules are prepared ahead of the writer. Prepare and the writer share a fixed pool of
+    // prepare_threads + 1 platform threads, the writer holding one of them for the whole run, and evaluation runs on its
+    // own fixed pool, so both stages are bounded by their thread counts.
+
+    public interface RuleStage {
+        void prepare(int index, Rule rule) throws Exception;
+    }
+
+    public static void run(List<Rule> rules, int prepare_threads, int evaluate_threads, int queue_size, RuleStage prepare,
+                           ParallelRuleEvaluator.RuleTask evaluate, ParallelRuleEvaluator.ResultWriter writer) throws Exception {
+        /**
+         @param rules the rules, in output order
+         @param prepare_threads the number of rules prepared at the same time
+         @param evaluate_threads the number of rules evaluated at the same time
+         @param queue_size the number of rules that may be prepared or evaluated but not yet written
+         @param prepare runs before evaluate for each rule
+         @param evaluate computes the metrics of a prepared rule
+         @param writer receives (index, rule, metrics) in the order of rules
+         @throws Exception the first failure of a stage; remaining rules are cancelled
+         */
+        ExecutorService io = Executors.newFixedThreadPool(prepare_threads + 1, runnable -> {
+            Thread thread = new Thread(runnable, "rule-pipeline-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService cpu = Executors.newFixedThreadPool(evaluate_threads, runnable -> {
+            Thread thread = new Thread(runnable, "rule-evaluator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<CompletableFuture<ArrayList<Double>>> results = new ArrayBlockingQueue<>(queue_size);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try {
+            Future<?> written = io.submit(() -> {
+                try {
+                    for (int i = 0; i < rules.size(); ++i){
+                        ArrayList<Double> metrics;
+                        try {
+                            metrics = results.take().get();
+                        } catch (ExecutionException e){
+                            throw e.getCause();
+                        }
+                        writer.write(i, rules.get(i), metrics);
+                    }
+                } catch (Throwable e){
+                    failure.compareAndSet(null, e);
+                }
+            });
+
+            for (int i = 0; i < rules.size() && failure.get() == null; ++i){
+                int index = i;
+                Rule rule = rules.get(i);
+                CompletableFuture<ArrayList<Double>> result = CompletableFuture.runAsync(() -> {
+                    try {
+                        prepare.prepare(index, rule);
+                    } catch (Exception e){
+                        throw new CompletionException(e);
+                    }
+                }, io).thenApplyAsync(prepared -> {
+                    try {
+                        return evaluate.evaluate(index, rule);
+                    } catch (Exception e){
+                        throw new CompletionException(e);
+                    }
+                }, cpu);
+                while (!results.offer(result, 100, TimeUnit.MILLISECONDS))
+                    if (failure.get() != null)
+                        break;
+            }
+            written.get();
+        } finally {
+            io.shutdownNow();
+            cpu.shutdownNow();
+        }
+
+        Throwable e = failure.get();
+        if (e instanceof Exception)
+            throw (Exception) e;
+        if (e != null)
+            throw new ExecutionException(e);
+    }
+}
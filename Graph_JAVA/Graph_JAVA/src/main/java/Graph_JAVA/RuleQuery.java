@@ -1,4 +1,8 @@
 package Graph_JAVA;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import com.google.common.io.MoreFiles;
 import com.google.common.io.RecursiveDeleteOption;
 import org.apache.shiro.crypto.hash.Hash;
@@ -6,13 +10,12 @@ import org.neo4j.batchinsert.BatchInserter;
 import org.neo4j.batchinsert.BatchInserters;
 import org.neo4j.configuration.Config;
 import org.neo4j.configuration.GraphDatabaseSettings;
-import org.neo4j.dbms.api.DatabaseManagementService;
-import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
 import org.neo4j.graphdb.*;
 import org.neo4j.io.layout.DatabaseLayout;
 
 import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.IntStream;
 
@@ -25,182 +28,271 @@ public class RuleQuery {
          @param triples_to_add an ArrayList of ArrayList of integers, where each inner ArrayList represents a triple in the form (subject, predicate, object)
          @throws IOException if an I/O error occurs while accessing the database folder
          */
+        if (RunConfig.bulk_import()){
+            BulkImporter.create_neo4j_database(database_folder_path, triples_to_add);
+            return;
+        }
 
-        File neo4j_folder = new File(database_folder_path);
-        if (neo4j_folder.exists())
-            MoreFiles.deleteRecursively(neo4j_folder.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
-        BatchInserter inserter = BatchInserters.inserter(DatabaseLayout.of(
-                Config.newBuilder().set(GraphDatabaseSettings.neo4j_home, neo4j_folder.toPath()).build()));
+        BatchInserter inserter = open_inserter(database_folder_path);
 
+        // Nodes created so far are tracked here rather than asking the inserter twice per triple.
+        BitSet created = new BitSet();
+        Label node_label = Label.label("Node");
+        Map<String, Object> no_properties = Collections.emptyMap();
+        HashMap<Integer, RelationshipType> types = new HashMap<>();
         for (ArrayList<Integer> triple: triples_to_add){
             int s = triple.get(0);
             int p = triple.get(1);
             int o = triple.get(2);
 
-            if (!inserter.nodeExists(s))
-                inserter.createNode(s, new HashMap<>(), Label.label("Node"));
-            if (!inserter.nodeExists(o))
-                inserter.createNode(o, new HashMap<>(), Label.label("Node"));
+            if (!created.get(s)){
+                inserter.createNode(s, no_properties, node_label);
+                created.set(s);
+            }
+            if (!created.get(o)){
+                inserter.createNode(o, no_properties, node_label);
+                created.set(o);
+            }
 
-            inserter.createRelationship(s, o, RelationshipType.withName("" + p), new HashMap<>());
+            inserter.createRelationship(s, o, types.computeIfAbsent(p, k -> RelationshipType.withName("" + k)), no_properties);
         }
 
         inserter.shutdown();
     }
 
-    public static long get_number_of_entities(String path_to_neo4j_database){
-        File neo4j_folder = new File(path_to_neo4j_database);
-        DatabaseManagementService service = new DatabaseManagementServiceBuilder(neo4j_folder.toPath()).
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).
-                setConfig(GraphDatabaseSettings.pagecache_memory, "64G").
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).build();
-
-        GraphDatabaseService db = service.database("neo4j");
-        Transaction tx = db.beginTx();
-        String query = "MATCH (a) RETURN count(a) as cnt";
-        long n_entities = 0;
-        try{
-            Result res = tx.execute(query);
-            while(res.hasNext()){
-                Map<String, Object> row = res.next();
-                n_entities = (long) row.get("cnt");
-            }
-        } catch (Exception e){
-            e.printStackTrace();
+    public static void create_neo4j_database(String database_folder_path, OffHeapTripleStore store, int[] predicates) throws IOException {
+        /**
+         Creates a neo4j database from the distinct triples of some predicates of an off-heap store. The pairs are read
+         straight from the store's direct buffers, so no triples are copied onto the heap.
+         @param database_folder_path the path of the folder where the neo4j database will be stored
+         @param store the store holding the triples
+         @param predicates the predicates to import, sorted and distinct
+         @throws IOException if an I/O error occurs while accessing the database folder
+         */
+        if (RunConfig.bulk_import()){
+            BulkImporter.create_neo4j_database(database_folder_path, store, predicates);
+            return;
         }
-        service.shutdown();
-        return n_entities;
-    }
 
-    public static long get_pca_denominator(Transaction tx, Rule r, HashMap<Long, ArrayList<Long>> node_degree_dict, long n_entities){
+        BatchInserter inserter = open_inserter(database_folder_path);
+        BitSet created = new BitSet();
+        Label node_label = Label.label("Node");
+        Map<String, Object> no_properties = Collections.emptyMap();
+        for (int p: predicates){
+            RelationshipType type = RelationshipType.withName("" + p);
+            store.for_each_pair(p, (s, o) -> {
+                if (!created.get(s)){
+                    inserter.createNode(s, no_properties, node_label);
+                    created.set(s);
+                }
+                if (!created.get(o)){
+                    inserter.createNode(o, no_properties, node_label);
+                    created.set(o);
+                }
 
-        String fv = r.functional_variable;
-        String query = "MATCH " + r.body_atoms.get(0).neo4j_print() + " RETURN id(a) as a, id(b) as b";
-        long pca_denom = 0;
-        try{
-            Result res = tx.execute(query);
+                inserter.createRelationship(s, o, type, no_properties);
+            });
+        }
 
-            while(res.hasNext()){
-                Map<String, Object> row = res.next();
+        inserter.shutdown();
+    }
 
-                long functionalVar = (long) row.get(fv);
-                if (node_degree_dict.containsKey(functionalVar)){
-                    if (fv.equals("b")){
-                        if (n_entities - node_degree_dict.get(functionalVar).get(1) > 0)
-                            ++pca_denom;
-                    }
-                    else{
-                        if (n_entities - node_degree_dict.get(functionalVar).get(0) > 0) {
-                            ++pca_denom;
-                        }
-                    }
+    private static BatchInserter open_inserter(String database_folder_path) throws IOException {
+        File neo4j_folder = new File(database_folder_path);
+        if (neo4j_folder.exists())
+            MoreFiles.deleteRecursively(neo4j_folder.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+        return BatchInserters.inserter(DatabaseLayout.of(
+                Config.newBuilder().set(GraphDatabaseSettings.neo4j_home, neo4j_folder.toPath()).build()));
+    }
 
-                }
+    public static String get_store_key(String... input_file_paths) throws IOException {
+        /**
+         Hashes the content of the files a store is built from, so an existing store can be recognised as up to date.
+         @param input_file_paths the materialization and dataset files; null entries are ignored
+         @return the SHA-256 of the concatenated file contents as a hex string
+         */
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String path: input_file_paths){
+            if (path == null)
+                continue;
+            hasher.putUnencodedChars(new File(path).getName());
+            Files.asByteSource(new File(path)).copyTo(Funnels.asOutputStream(hasher));
+        }
+        return hasher.hash().toString();
+    }
 
+    public static boolean create_neo4j_database_once(String database_folder_path, HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict, String store_key) throws IOException {
+        /**
+         Imports every triple of triple_dict into a single neo4j database, unless the database at database_folder_path
+         was already built from inputs with the same store key.
+         @param database_folder_path the path of the folder where the neo4j database will be stored
+         @param triple_dict triples grouped by predicate, as returned by collect_materializations
+         @param store_key the key of the inputs, as returned by get_store_key
+         @return true if the database was rebuilt, false if the existing one was reused
+         @throws IOException if an I/O error occurs while accessing the database folder
+         */
+        if (is_store_current(database_folder_path, store_key))
+            return false;
+
+        // Rules only ever see distinct triples (collect_materializations_for_rule goes through a set), so duplicates are
+        // dropped here as well to keep head counts identical to the per-rule stores.
+        ArrayList<ArrayList<Integer>> triples = new ArrayList<>();
+        for (Map.Entry<Integer, ArrayList<ArrayList<Integer>>> entry: triple_dict.entrySet()){
+            ArrayList<ArrayList<Integer>> relation_triples = entry.getValue();
+            long[] pairs = new long[relation_triples.size()];
+            for (int i = 0; i < pairs.length; ++i)
+                pairs[i] = CsrRelation.pack(relation_triples.get(i).get(0), relation_triples.get(i).get(2));
+            Arrays.sort(pairs);
+            for (int i = 0; i < pairs.length; ++i){
+                if (i > 0 && pairs[i] == pairs[i - 1])
+                    continue;
+                ArrayList<Integer> triple = new ArrayList<>();
+                triple.add(CsrRelation.first(pairs[i]));
+                triple.add(entry.getKey());
+                triple.add(CsrRelation.second(pairs[i]));
+                triples.add(triple);
             }
-        } catch (Exception e){
-            e.printStackTrace();
         }
 
-        return pca_denom;
+        create_neo4j_database(database_folder_path, triples);
+        Files.asCharSink(new File(database_folder_path, "store.key"), StandardCharsets.UTF_8).write(store_key);
+        return true;
     }
 
-    public static HashMap<Long, ArrayList<Long>> get_node_degrees(String path_to_neo4j_database){
+    public static boolean create_neo4j_database_once(String database_folder_path, OffHeapTripleStore store, String store_key) throws IOException {
+        /**
+         Imports the distinct triples of an off-heap store, like the triple_dict variant.
+         @return true if the database was rebuilt, false if the existing one was reused
+         */
+        if (is_store_current(database_folder_path, store_key))
+            return false;
+        create_neo4j_database(database_folder_path, store, store.predicates());
+        Files.asCharSink(new File(database_folder_path, "store.key"), StandardCharsets.UTF_8).write(store_key);
+        return true;
+    }
 
-        String query = "MATCH (z) RETURN id(z) as var, size(()-[]->(z)) as inDegree, size((z)-[]->()) as outDegree";
-        HashMap<Long, ArrayList<Long>> node_degree_dict = new HashMap<>();
-        File neo4j_folder = new File(path_to_neo4j_database);
-        DatabaseManagementService service = new DatabaseManagementServiceBuilder(neo4j_folder.toPath()).
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).
-                setConfig(GraphDatabaseSettings.pagecache_memory, "64G").
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).build();
+    private static boolean is_store_current(String database_folder_path, String store_key) throws IOException {
+        File key_file = new File(database_folder_path, "store.key");
+        return key_file.exists() && Files.asCharSource(key_file, StandardCharsets.UTF_8).read().strip().equals(store_key);
+    }
 
-        GraphDatabaseService db = service.database("neo4j");
-        Transaction tx = db.beginTx();
+    public static long get_number_of_entities(String path_to_neo4j_database){
+        try (Neo4jSession session = Neo4jSession.open(path_to_neo4j_database)){
+            return get_number_of_entities(session);
+        }
+    }
+
+    public static long get_number_of_entities(Neo4jSession session){
+        String query = "MATCH (a) RETURN count(a) as cnt";
+        return session.read(tx -> {
+            long n_entities = 0;
+            try{
+                Result res = tx.execute(query);
+                while(res.hasNext()){
+                    Map<String, Object> row = res.next();
+                    n_entities = (long) row.get("cnt");
+                }
+                res.close();
+            } catch (Exception e){
+                e.printStackTrace();
+            }
+            return n_entities;
+        });
+    }
 
+    public static long get_pca_denominator(Transaction tx, Rule r, DegreeIndex degrees, int[] relations, long n_entities){
+        /**
+         Counts the rows of the first body atom whose functional variable has a degree below the number of entities.
+         The degree is the in-degree if the functional variable is b and the out-degree otherwise, summed over the
+         relations of the store, and is read from the degree index instead of the store.
+         */
+        String fv = r.functional_variable;
+        boolean out = !fv.equals("b");
+        String query = "MATCH " + r.body_atoms.get(0).neo4j_print() + " RETURN id(a) as a, id(b) as b";
+        long pca_denom = 0;
         try{
             Result res = tx.execute(query);
 
             while(res.hasNext()){
                 Map<String, Object> row = res.next();
-                long var = (long) row.get("var");
-                long inDegree = (long) row.get("inDegree");
-                long outDegree = (long) row.get("outDegree");
-
-                ArrayList<Long> degrees = new ArrayList<>();
-                degrees.add(outDegree);
-                degrees.add(inDegree);
-                node_degree_dict.put(var, degrees);
+
+                long functionalVar = (long) row.get(fv);
+                if (n_entities - degrees.degree(relations, (int) functionalVar, out) > 0)
+                    ++pca_denom;
             }
-            res.close();
         } catch (Exception e){
             e.printStackTrace();
         }
-        service.shutdown();
 
-        return node_degree_dict;
+        return pca_denom;
     }
 
-    public static ArrayList<Double> query_rule_asymmetry(Rule rule_to_query, String database_folder_path, HashMap<Long, ArrayList<Long>> node_degree_dict, long n_entities){
+    public static ArrayList<Double> query_rule_asymmetry(Rule rule_to_query, String database_folder_path, DegreeIndex degrees){
+        try (Neo4jSession session = Neo4jSession.open(database_folder_path)){
+            return query_rule_asymmetry(rule_to_query, session, degrees);
+        }
+    }
 
-        File neo4j_folder = new File(database_folder_path);
-        DatabaseManagementService service = new DatabaseManagementServiceBuilder(neo4j_folder.toPath()).
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).
-                setConfig(GraphDatabaseSettings.pagecache_memory, "64G").
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).build();
+    public static ArrayList<Double> query_rule_asymmetry(Rule rule_to_query, Neo4jSession session, DegreeIndex degrees){
+        /**
+         @param degrees the degree index of the triples in the store, e.g. from DegreeIndex.load_or_build; entities and
+                        degrees only count the relations of the rule, as in a per-rule store
+         */
+        int[] relations = AsymmetryEvaluator.rule_relations(rule_to_query);
+        long n_entities = degrees.entity_count(relations);
+        return session.read(tx -> {
+            long support = 0;
+
+            try {
+                Result res = tx.execute("MATCH " + rule_to_query.body_atoms.get(0).neo4j_print() + " WHERE NOT EXISTS(" + rule_to_query.head_atom.neo4j_print() + ") WITH DISTINCT a, b RETURN COUNT(*) as cnt");
+                while (res.hasNext()) {
+                    Map<String, Object> row = res.next();
+                    support = (long) row.get("cnt");
+                }
+                res.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
 
-        GraphDatabaseService db = service.database("neo4j");
-        Transaction tx = db.beginTx();
-        long support = 0;
+            // Pairs of nodes without a head edge, counted as n^2 minus the distinct head pairs rather than over all node pairs.
+            long heads = n_entities * n_entities - count_distinct_pairs(tx, rule_to_query.head_atom.neo4j_print());
 
-        try {
-            Result res = tx.execute("MATCH " + rule_to_query.body_atoms.get(0).neo4j_print() + " WHERE NOT EXISTS(" + rule_to_query.head_atom.neo4j_print() + ") WITH DISTINCT a, b RETURN COUNT(*) as cnt");
-            while (res.hasNext()) {
-                Map<String, Object> row = res.next();
-                support = (long) row.get("cnt");
-            }
-            res.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+            long pca = get_pca_denominator(tx, rule_to_query, degrees, relations, n_entities);
+
+            System.out.println("\tComputed support: " + support);
+            System.out.println("\tComputed tHeads: " + heads);
+            System.out.println("\tComputed PCA: " + pca);
+
+            System.out.println("\tHead coverage: " + (support * 1.0 / heads));
+            System.out.println("\tPCA confidence: " + (support * 1.0 / pca));
 
-        long heads = 0;
+            double hc_for_rule = (1.0*support)/heads;
+            double pca_for_rule = (1.0*support)/pca;
+
+            ArrayList<Double> metrics = new ArrayList<>();
+            metrics.add(hc_for_rule);
+            metrics.add(pca_for_rule);
+            return metrics;
+        });
+    }
+
+    public static long count_distinct_pairs(Transaction tx, String pattern){
+        /**
+         @param pattern a pattern binding a and b, such as Atom.neo4j_print
+         @return the number of distinct (a, b) matches of the pattern
+         */
+        long count = 0;
         try {
-            Result res = tx.execute("MATCH (a) MATCH (b) WHERE NOT EXISTS(" + rule_to_query.head_atom.neo4j_print() + ") WITH DISTINCT a, b RETURN count(*) as cnt");
+            Result res = tx.execute("MATCH " + pattern + " WITH DISTINCT a, b RETURN count(*) as cnt");
             while (res.hasNext()) {
                 Map<String, Object> row = res.next();
-                heads = (long) row.get("cnt");
+                count = (long) row.get("cnt");
             }
             res.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
-
-        long pca = get_pca_denominator(tx, rule_to_query, node_degree_dict, n_entities);
-
-        System.out.println("\tComputed support: " + support);
-        System.out.println("\tComputed tHeads: " + heads);
-        System.out.println("\tComputed PCA: " + pca);
-
-        System.out.println("\tHead coverage: " + (support * 1.0 / heads));
-        System.out.println("\tPCA confidence: " + (support * 1.0 / pca));
-
-        double hc_for_rule = (1.0*support)/heads;
-        double pca_for_rule = (1.0*support)/pca;
-
-        ArrayList<Double> metrics = new ArrayList<>();
-        metrics.add(hc_for_rule);
-        metrics.add(pca_for_rule);
-
-        service.shutdown();
-
-        return metrics;
+        return count;
     }
 
     public static ArrayList<Double> query_rule(Rule rule_to_query, String database_folder_path){
@@ -211,104 +303,121 @@ public class RuleQuery {
          @param database_folder_path The path to the folder containing the Neo4j database.
          @return An ArrayList of two Double values, representing the HC and PCA respectively.
          */
-        File neo4j_folder = new File(database_folder_path );
-        DatabaseManagementService service = new DatabaseManagementServiceBuilder(neo4j_folder.toPath()).
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).
-                setConfig(GraphDatabaseSettings.pagecache_memory, "64G").
-                setConfig(GraphDatabaseSettings.keep_logical_logs, "false").
-                setConfig(GraphDatabaseSettings.preallocate_logical_logs, false).build();
-
-        GraphDatabaseService db = service.database("neo4j");
-        String nonFuncVar = rule_to_query.functional_variable.equals("a")?"b":"a";
+        return query_rule(rule_to_query, database_folder_path, 1);
+    }
 
-        //Build query
-        String query = "";
-        Result res = null;
+    public static ArrayList<Double> query_rule(Rule rule_to_query, String database_folder_path, int open_stores){
+        /**
+         Same as query_rule on a store folder, when open_stores stores are queried at the same time and share the page cache budget.
+         */
+        try (Neo4jSession session = Neo4jSession.open(database_folder_path, open_stores)){
+            ArrayList<Double> metrics = query_rule(rule_to_query, session);
+            session.record_page_cache();
+            return metrics;
+        }
+    }
 
-        for(Atom atom: rule_to_query.body_atoms)
-            query += " MATCH " + atom.neo4j_print();
+    public static ArrayList<Double> query_rule(Rule rule_to_query, Neo4jSession session){
+        /**
+         Same as query_rule on a path, against a database that is already open. Safe to call from several threads.
+         @param rule_to_query The rule to be queried.
+         @param session the open database holding every relation of the rule
+         @return An ArrayList of two Double values, representing the HC and PCA respectively.
+         */
+        if (RunConfig.engine().equals("traversal"))
+            return TraversalRuleQuery.query_rule(rule_to_query, session);
+        return session.read(tx -> {
+            RunMetrics.phase(RunMetrics.BODY_QUERY, "Running body query");
+            LongHashSet bodyPairs = get_body_pairs(tx, rule_to_query);
+
+            RunMetrics.phase(RunMetrics.HEAD_QUERY, "Running head query");
+            HeadIndex head_index = get_head_index(tx, rule_to_query.head_atom.relationship);
+
+            RunMetrics.phase(RunMetrics.PCA, "Computing PCA");
+            return head_index.score(rule_to_query, bodyPairs);
+        });
+    }
 
-        Transaction tx = db.beginTx();
+    public static HeadIndex get_head_index(Transaction tx, String relation){
+        HeadIndex head_index = new HeadIndex();
+        Result res = tx.execute("MATCH (a)-[:`" + relation + "`]->(b) RETURN id(a) AS a, id(b) AS b");
+        while (res.hasNext()) {
+            Map<String, Object> row = res.next();
+            head_index.add((int) (long) row.get("a"), (int) (long) row.get("b"));
+        }
+        res.close();
+        return head_index;
+    }
 
-        System.out.println(new Date() + " -- Running body query");
+    public static LongHashSet get_body_pairs(Transaction tx, Rule rule_to_query){
+        String nonFuncVar = rule_to_query.functional_variable.equals("a")?"b":"a";
+        String query = "";
+        for(Atom atom: rule_to_query.body_atoms)
+            query += " MATCH " + atom.neo4j_print();
 
-        //Define hashmap
-        Map<Long, Set<Long>> bodyPairs = new HashMap<>();
+        LongHashSet bodyPairs = new LongHashSet();
         try {
-            res = tx.execute(query + " RETURN id(a) AS a, id(b) AS b");
+            Result res = tx.execute(query + " RETURN id(a) AS a, id(b) AS b");
             while (res.hasNext()) {
                 Map<String, Object> row = res.next();
-
-                // Get functional and non functional variable
                 long fv = (long) row.get(rule_to_query.functional_variable), nfv = (long) row.get(nonFuncVar);
-
-                // If nv does not exist, add nv using fv as key
-                if (!bodyPairs.containsKey(fv))
-                    bodyPairs.put(fv, new HashSet<>());
-
-                bodyPairs.get(fv).add(nfv);
+                bodyPairs.add(CsrRelation.pack((int) fv, (int) nfv));
             }
             res.close();
         } catch(Exception e){
             e.printStackTrace();
         }
+        return bodyPairs;
+    }
 
-        System.out.println(new Date() + " -- Running head query");
-
-        //Define hash set for support and pca
-        Set<String> support = new HashSet<>(), pca = new HashSet<>();
-        int totalHeads = 0;
-
-        // Define set for functional variables
-        Set<Long> allFVs = new HashSet<>();
-
-        // Define query for head atom
-        res = tx.execute("MATCH " + rule_to_query.head_atom.neo4j_print() + " RETURN id(a) AS a, id(b) AS b");
-        while (res.hasNext()) {
-            Map<String, Object> row = res.next();
-
-            //Get fv and nfv
-            long fv = (long) row.get(rule_to_query.functional_variable), nfv = (long) row.get(nonFuncVar);
-
-            // Add fv to fv set
-            allFVs.add(fv);
+    public static List<ArrayList<Double>> query_rules_for_head(List<Rule> rules_to_query, Neo4jSession session){
+        /**
+         Scores every rule of one head predicate with a single transaction and a single head query.
+         @param rules_to_query rules sharing the same head relationship
+         @param session an open database holding every relation of the rules
+         @return the HC and PCA of each rule, in the order of rules_to_query
+         */
+        boolean traversal = RunConfig.engine().equals("traversal");
+        return session.read(tx -> {
+            String relation = rules_to_query.get(0).head_atom.relationship;
+            RunMetrics.phase(RunMetrics.HEAD_QUERY, "Running head query for relation " + relation);
+            HeadIndex head_index = traversal ? TraversalRuleQuery.get_head_index(tx, relation) : get_head_index(tx, relation);
+
+            List<ArrayList<Double>> metrics = new ArrayList<>();
+            for (Rule rule: rules_to_query){
+                RunMetrics.phase(RunMetrics.BODY_QUERY, "Running body query: " + rule.id_print());
+                LongHashSet body_pairs = traversal ? TraversalRuleQuery.get_body_pairs(tx, rule) : get_body_pairs(tx, rule);
+                RunMetrics.phase(RunMetrics.PCA, null);
+                metrics.add(head_index.score(rule, body_pairs));
+            }
+            return metrics;
+        });
+    }
 
-            // If bodypairs contains fv and the value is the nfv, add to support
-            if (bodyPairs.containsKey(fv) && bodyPairs.get(fv).contains(nfv))
-                support.add(fv + "," + nfv);
+    public static void group_rules_by_head(List<Rule> rules){
+        /**
+         Moves the rules of each head predicate next to each other, keeping the order of the predicates' first rules and
+         the order of the rules within a predicate.
+         */
+        Map<String, Integer> first = new HashMap<>();
+        for (Rule rule: rules)
+            first.putIfAbsent(rule.head_atom.relationship, first.size());
+        rules.sort(Comparator.comparingInt(rule -> first.get(rule.head_atom.relationship)));
+    }
 
-            totalHeads++;
+    public static List<List<Rule>> head_groups(List<Rule> rules){
+        /**
+         @return the runs of consecutive rules with the same head predicate
+         */
+        List<List<Rule>> groups = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= rules.size(); ++i){
+            if (i == rules.size() || !rules.get(i).head_atom.relationship.equals(rules.get(start).head_atom.relationship)){
+                groups.add(rules.subList(start, i));
+                start = i;
+            }
         }
-        res.close();
-
-        System.out.println(new Date() + " -- Computing PCA");
-
-        // Compute pca
-        // Iterate through all fvs
-        for (Long fv : allFVs)
-            // If bodyPairs contains the fv
-            if (bodyPairs.containsKey(fv))
-                // For all values in key of body pairs, add to pca
-                for (Long other : bodyPairs.get(fv))
-                    pca.add(fv + "," + other);
-
-        System.out.println("\tBody pairs size: " + bodyPairs.size());
-        System.out.println("\tHead size: " + totalHeads);
-        System.out.println("\tSupport size: " + support.size());
-        System.out.println("\tPCA size: " + pca.size());
-
-        // make pca and hc
-        double hc_for_rule = (1.0*support.size())/totalHeads;
-        double pca_for_rule = (1.0*support.size())/pca.size();
-
-        ArrayList<Double> metrics = new ArrayList<>();
-        metrics.add(hc_for_rule);
-        metrics.add(pca_for_rule);
-
-        service.shutdown();
-
-        return metrics;
+        return groups;
     }
 
     public static HashMap<Integer, ArrayList<ArrayList<Integer>>> collect_materializations(String materialization_folder_path, String train_triples_path, String valid_triples_path, String test_triples_path) throws FileNotFoundException {
@@ -443,6 +552,18 @@ public class RuleQuery {
         return triple_dict;
     }
 
+    public static HashMap<Integer, ArrayList<ArrayList<Integer>>> overlay_triples(HashMap<Integer, ArrayList<ArrayList<Integer>>> base_triples, HashMap<Integer, ArrayList<ArrayList<Integer>>> model_triples){
+        /**
+         @return the triples of both maps grouped by predicate, as collect_materializations would return for both inputs; base_triples is not modified
+         */
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict = new HashMap<>();
+        for (Map.Entry<Integer, ArrayList<ArrayList<Integer>>> entry: base_triples.entrySet())
+            triple_dict.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        for (Map.Entry<Integer, ArrayList<ArrayList<Integer>>> entry: model_triples.entrySet())
+            triple_dict.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+        return triple_dict;
+    }
+
     public static ArrayList<ArrayList<Integer>> collect_materializations_for_rule(Rule rule, HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict){
         Set<ArrayList<Integer>> triples = new HashSet<>();
 
@@ -462,31 +583,138 @@ public class RuleQuery {
 
 
 
-    public static void main(String[] args) throws IOException {
+    public static void evaluate_asymmetry_rules(RuleParser rp, HashMap<String, String> fv_for_relation, double beta, CsrGraph dataset_graph, DegreeIndex dataset_degrees, CsrGraph graph, DegreeIndex degrees, BufferedWriter bufferedWriter) throws IOException {
+        /**
+         Scores r(b,a) => NOT r(a,b) for every head relation, on the dataset and on the dataset plus predictions.
+         @param dataset_graph the train, valid and test triples
+         @param graph the dataset triples together with the materialization
+         @param dataset_degrees the degree index of dataset_graph
+         @param degrees the degree index of graph
+         @param bufferedWriter receives one NOT: row per relation, in the format of the rule rows
+         */
+        int relation_total = rp.rules_by_predicate.keySet().size();
+        int relation_count = 0;
+        for(String relation: rp.rules_by_predicate.keySet()){
+            ArrayList<Atom> body = new ArrayList<>();
+            body.add(new Atom(relation, "b", "a", ""));
+            Atom head = new Atom(relation, "a", "b", "");
+
+            String fv = fv_for_relation.getOrDefault(relation, dataset_degrees.functional_variable(Integer.parseInt(relation)));
+            Rule r = new Rule(head, body, 0.1, 0.1, fv, beta);
+            System.out.println("\nProcessing asymmetry rule on train+test+valid " + relation_count + "/" + relation_total + ": NOT: " + r.id_print());
+            ArrayList<Double> og_metrics = AsymmetryEvaluator.query_rule_asymmetry(r, dataset_graph, dataset_degrees);
+            r.head_coverage = og_metrics.get(0);
+            r.pca_confidence = og_metrics.get(1);
+
+            System.out.println("\nProcessing asymmetry rule on train+predictions " + relation_count + "/" + relation_total + ": NOT: " + r.id_print());
+            ArrayList<Double> metrics = AsymmetryEvaluator.query_rule_asymmetry(r, graph, degrees);
+            bufferedWriter.write("NOT:" + r.id_print() + "\t" + r.head_coverage + "\t" + r.pca_confidence + "\t" + metrics.get(0) + "\t" + metrics.get(1) + "\n");
+            bufferedWriter.flush();
+            relation_count++;
+        }
+    }
 
+    public static void main(String[] args) throws Exception {
+        /**
+         Scores the rules of a dataset against a model's materialization. A comma separated list of model names runs a
+         sweep: the rules are parsed once and, unless the triples are memory-mapped or kept off-heap per model, the
+         dataset triples are loaded once and each model's materialization is overlaid on them in turn, writing one
+         processed file per model.
+         */
         String dataset_name = args[0];
-        String model_name = args[1];
-        String mat_file_name = args[2];
+        String[] model_names = args[1].split(",");
         String rule_file_name = args[3];
         double beta = Double.parseDouble(args[4]);
+        String path_to_dataset_folder = args[8];
+        String rules_file_path = path_to_dataset_folder + "/" + dataset_name + "/" +  rule_file_name;
+        String train_triples_path = path_to_dataset_folder + "/" + dataset_name + "/train2id.txt";
+        String valid_triples_path = path_to_dataset_folder + "/" + dataset_name + "/valid2id.txt";
+        // The rules are shared by every model of a sweep, so the parser is not tied to one of them. They are kept in
+        // rp.rules rather than streamed, since scoring a model reorders, fingerprints and deduplicates the whole list.
+        RuleParser rp = new RuleParser(rules_file_path, null, "", dataset_name, "\t");
+        rp.parse_rules_from_file(beta);
+
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> base_triples = null;
+        CsrGraph base_graph = null;
+        if (model_names.length > 1 && !RunConfig.binary_triples() && !RunConfig.off_heap()){
+            System.out.println("Loading the dataset triples shared by " + model_names.length + " models");
+            base_triples = collect_materializations(null, train_triples_path, valid_triples_path, null);
+            if (RunConfig.engine().equals("memory"))
+                base_graph = CsrGraph.from_triple_dict(base_triples);
+        }
+
+        for (String model_name: model_names)
+            score_model(args, model_name, rp, base_triples, base_graph);
+    }
+
+    public static void score_model(String[] args, String model_name, RuleParser rp, HashMap<Integer, ArrayList<ArrayList<Integer>>> base_triples, CsrGraph base_graph) throws Exception {
+        /**
+         Scores the parsed rules against the materialization of one model and writes its processed file.
+         @param args the arguments of main
+         @param base_triples the train and valid triples when they are shared by a sweep, otherwise null
+         @param base_graph the in-memory graph of base_triples when the in-memory engine is used, otherwise null
+         */
+        String dataset_name = args[0];
+        String mat_file_name = args[2];
+        double beta = Double.parseDouble(args[4]);
         String path_to_materialization_folder = args[5];
-        String path_to_neo4j_database_folder = args[6] + "_" + mat_file_name.replace(".tsv", "") + "/db/";
+        // Each model of a sweep gets its own store folder, so single stores and their keys are not overwritten by the next model.
+        String path_to_neo4j_database_folder = args[6] + "_" + model_name + "_" + mat_file_name.replace(".tsv", "") + "/db/";
         String path_to_processed_folder = args[7];
         String path_to_dataset_folder = args[8];
         System.out.println("Dataset name: " + dataset_name + "; Model name: " + model_name);
         String materialization_file_path = path_to_materialization_folder + "/" + dataset_name + "/" + model_name +"/" +  mat_file_name;
-        String rules_file_path = path_to_dataset_folder + "/" + dataset_name + "/" +  rule_file_name;
         String output_file_path = path_to_processed_folder + "/" + dataset_name + "/" + model_name + "/" +  mat_file_name.replace(".","_processed.");
         String train_triples_path = path_to_dataset_folder + "/" + dataset_name + "/train2id.txt";
         String valid_triples_path = path_to_dataset_folder + "/" + dataset_name + "/valid2id.txt";
         String test_triples_path = path_to_dataset_folder + "/" + dataset_name + "/test2id.txt";
-        RuleParser rp = new RuleParser(rules_file_path, null, model_name, dataset_name, "\t");
-        rp.parse_rules_from_file(beta);
 
-        HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict = collect_materializations(materialization_file_path, train_triples_path, valid_triples_path, null);
+        MappedTriples mapped_triples = null;
+        if (RunConfig.binary_triples()){
+            String binary_path = materialization_file_path + ".bin";
+            if (!BinaryTripleFile.is_up_to_date(binary_path, materialization_file_path, train_triples_path, valid_triples_path)){
+                System.out.println("Converting triples to " + binary_path);
+                BinaryTripleFile.convert(binary_path, materialization_file_path, train_triples_path, valid_triples_path);
+            }
+            mapped_triples = BinaryTripleFile.load(binary_path);
+            System.out.println("Mapped triples: " + mapped_triples.triple_count());
+        }
+        // Materializations too large for boxed triples are kept off the heap and expanded one relation at a time.
+        OffHeapTripleStore store = mapped_triples == null && RunConfig.off_heap() ?
+                OffHeapTripleStore.load(materialization_file_path, train_triples_path, valid_triples_path) : null;
+
+        // The in-memory engine reads the mapped columns directly; every other path still needs the boxed triples.
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict;
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> model_triples = null;
+        if (mapped_triples != null)
+            triple_dict = RunConfig.engine().equals("memory") ? null : mapped_triples.to_triple_dict();
+        else if (store != null)
+            triple_dict = null;
+        else if (base_triples != null){
+            model_triples = collect_materializations(materialization_file_path, null, null, null);
+            triple_dict = base_graph != null ? null : overlay_triples(base_triples, model_triples);
+        }
+        else
+            triple_dict = collect_materializations(materialization_file_path, train_triples_path, valid_triples_path, null);
 //        HashMap<Integer, ArrayList<ArrayList<Integer>>> triple_dict_for_dataset = collect_materializations(null, train_triples_path, valid_triples_path, test_triples_path);
-        FileWriter fileWriter = new FileWriter(output_file_path);
-        BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
+        // On Neo4j, grouping by head makes the rules of a head predicate one unit of work sharing the head query, which
+        // needs the single store and the rules of a head next to each other; the memory engine shares head indexes instead.
+        boolean grouped = RunConfig.group_by_head() && !RunConfig.engine().equals("memory");
+        if (grouped && !RunConfig.graph_build().equals("once")){
+            System.out.println("Grouping by head needs -Dgraph_build=once with the Neo4j engines, scoring rules one by one");
+            grouped = false;
+        }
+        if (grouped)
+            group_rules_by_head(rp.rules);
+        if (Boolean.getBoolean("approximate") && !RunConfig.approximate())
+            System.out.println("Approximate scores need -Dengine=memory, counting every rule exactly");
+        // With checkpoints, a run over the same rules and inputs continues after the last rule whose row was written.
+        Checkpoint checkpoint = RunConfig.checkpoint() ? Checkpoint.open(output_file_path,
+                Checkpoint.fingerprint(rp.rules, materialization_file_path, train_triples_path, valid_triples_path)) : null;
+        boolean resumed = checkpoint != null && checkpoint.resumed;
+        int resume_from = resumed ? checkpoint.completed : 0;
+        List<Rule> remaining_rules = rp.rules.subList(resume_from, rp.rules.size());
+        BufferedWriter bufferedWriter = checkpoint != null ? checkpoint.open_output() : new BufferedWriter(new FileWriter(output_file_path));
         HashMap<String, String> fv_for_relation = new HashMap<>();
 
         for(Rule this_rule: rp.rules){
@@ -532,18 +760,202 @@ public class RuleQuery {
 //            relation_count++;
 //        }
 
-        int ctr = 0;
-        for(Rule this_rule: rp.rules){
+        RunMetrics run_metrics = RunConfig.metrics() ? RunMetrics.enable() : null;
+        CsrGraph graph = null;
+        if (RunConfig.engine().equals("memory")){
+            System.out.println("Building in-memory graph");
+            long build_started = System.nanoTime();
+            if (mapped_triples != null)
+                graph = CsrGraph.from_mapped(mapped_triples);
+            else if (store != null)
+                graph = store.to_csr_graph();
+            else if (base_graph != null)
+                graph = CsrGraph.overlay(base_graph, CsrGraph.from_triple_dict(model_triples));
+            else
+                graph = CsrGraph.from_triple_dict(triple_dict);
+            RunMetrics.run_phase(RunMetrics.GRAPH_BUILD, System.nanoTime() - build_started);
+            System.out.println("In-memory graph edges: " + graph.edge_count());
+        }
 
-            System.out.println("\nProcessing rule " + ctr + "/" + rp.rules.size() + ": " + this_rule.id_print());
-            ArrayList<ArrayList<Integer>> triples = collect_materializations_for_rule(this_rule, triple_dict);
-            create_neo4j_database(path_to_neo4j_database_folder, triples);
-            ArrayList<Double> metrics = query_rule(this_rule, path_to_neo4j_database_folder);
+        if (RunConfig.asymmetry() && !resumed){
+            CsrGraph dataset_graph = CsrGraph.from_triple_dict(collect_materializations(null, train_triples_path, valid_triples_path, test_triples_path));
+            CsrGraph full_graph = graph != null ? graph : store != null ? store.to_csr_graph() : CsrGraph.from_triple_dict(triple_dict);
+            // Degree indexes are kept next to the files they describe and rebuilt only when those change.
+            DegreeIndex dataset_degrees = DegreeIndex.load_or_build(path_to_dataset_folder + "/" + dataset_name + "/degrees.idx",
+                    () -> dataset_graph, train_triples_path, valid_triples_path, test_triples_path);
+            DegreeIndex degrees = DegreeIndex.load_or_build(materialization_file_path + ".degrees.idx",
+                    () -> full_graph, materialization_file_path, train_triples_path, valid_triples_path);
+            evaluate_asymmetry_rules(rp, fv_for_relation, beta, dataset_graph, dataset_degrees, full_graph, degrees, bufferedWriter);
+        }
+        if (checkpoint != null && !resumed)
+            checkpoint.record(0);
+
+        boolean single_store = graph == null && RunConfig.graph_build().equals("once");
+        if (single_store){
+            System.out.println("Importing all triples into a single database");
+            long build_started = System.nanoTime();
+            String store_key = get_store_key(materialization_file_path, train_triples_path, valid_triples_path);
+            boolean rebuilt = store != null ?
+                    create_neo4j_database_once(path_to_neo4j_database_folder, store, store_key) :
+                    create_neo4j_database_once(path_to_neo4j_database_folder, triple_dict, store_key);
+            if (!rebuilt)
+                System.out.println("Reusing database built from the same inputs: " + store_key);
+            RunMetrics.run_phase(RunMetrics.GRAPH_BUILD, System.nanoTime() - build_started);
+        }
 
-            bufferedWriter.write(this_rule.id_print() + "\t" + this_rule.head_coverage + "\t" + this_rule.pca_confidence + "\t" + metrics.get(0) + "\t" + metrics.get(1) + "\n");
+        // A single store stays open for the whole run, which also lets its rules be queried from several threads.
+        Neo4jSession session = single_store ? Neo4jSession.open(path_to_neo4j_database_folder) : null;
+
+        CsrGraph shared_graph = graph;
+        // Rules equal up to variable renaming and atom order are scored once and share their metrics.
+        RuleClasses rule_classes = RunConfig.dedup_rules() ? new RuleClasses(remaining_rules) : null;
+        HeadIndexCache head_indexes = graph == null || !RunConfig.group_by_head() ? null :
+                new HeadIndexCache(rule_classes != null ? rule_classes.representatives(remaining_rules) : remaining_rules);
+        BodyPatternCache body_cache = RunConfig.body_cache_mb() > 0 ? new BodyPatternCache(RunConfig.body_cache_mb() << 20) : null;
+        // Incremental runs diff the graph against a snapshot of the previous run's inputs kept next to the output.
+        String state_path = output_file_path + ".state";
+        String snapshot_path = output_file_path + ".snapshot.bin";
+        IncrementalEvaluator incremental = null;
+        if (RunConfig.incremental() && graph == null)
+            System.out.println("Incremental runs need -Dengine=memory, evaluating every rule");
+        if (RunConfig.incremental() && graph != null){
+            Map<String, long[]> state = IncrementalEvaluator.read_state(state_path);
+            CsrGraph previous = state != null && new File(snapshot_path).exists() ? CsrGraph.from_mapped(BinaryTripleFile.load(snapshot_path)) : null;
+            if (previous == null)
+                System.out.println("No previous run to update, evaluating every rule");
+            incremental = new IncrementalEvaluator(previous, graph, state);
+        }
+        IncrementalEvaluator shared_incremental = incremental;
+        // Pruned rules get NaN metrics in the output and their bounds in <output>.pruned.
+        ThresholdEvaluator thresholds = graph != null && !RunConfig.approximate() ? ThresholdEvaluator.from_config() : null;
+        if (thresholds != null && incremental != null){
+            System.out.println("Incremental runs need the counts of every rule, ignoring the score thresholds");
+            thresholds = null;
+        }
+        ThresholdEvaluator shared_thresholds = thresholds;
+        BufferedWriter pruned_writer = thresholds != null ? new BufferedWriter(new FileWriter(output_file_path + ".pruned", resumed)) : null;
+        int n_threads = RunConfig.threads();
+        // A pipeline builds the per-rule stores of the next rules in their own folders while earlier rules are queried.
+        boolean pipelined = graph == null && !single_store && RunConfig.pipeline();
+        String pipeline_folder = path_to_neo4j_database_folder + "pipeline/";
+        if (graph == null && !single_store && !pipelined && n_threads > 1){
+            // Per-rule stores are deleted and rebuilt for every rule, which cannot be shared between threads.
+            System.out.println("Per-rule neo4j stores are evaluated on a single thread");
+            n_threads = 1;
+        }
+
+        ParallelRuleEvaluator.RuleTask task = (ctr, this_rule) -> {
+            System.out.println("\nProcessing rule " + (resume_from + ctr) + "/" + rp.rules.size() + ": " + this_rule.id_print());
+            if (RunConfig.approximate())
+                return ApproximateRuleQuery.query_rule(this_rule, shared_graph, RunConfig.approximate_error(), RunConfig.approximate_confidence());
+            if (shared_thresholds != null)
+                return shared_thresholds.query_rule(this_rule, shared_graph);
+            if (shared_graph != null){
+                IncrementalEvaluator.RuleCounter counter = rule -> {
+                    RunMetrics.phase(RunMetrics.HEAD_QUERY, null);
+                    HeadIndex head_index = head_indexes != null ?
+                            head_indexes.acquire(rule, relation -> HeadIndex.from_relation(shared_graph.relation(relation))) :
+                            HeadIndex.from_relation(shared_graph.relation(rule.head_atom.relationship));
+                    return InMemoryRuleQuery.count_rule(rule, shared_graph, head_index, body_cache);
+                };
+                try {
+                    return shared_incremental != null ? shared_incremental.query_rule(this_rule, counter) : HeadIndex.metrics(counter.count(this_rule));
+                } finally {
+                    if (head_indexes != null)
+                        head_indexes.release(this_rule);
+                }
+            }
+            if (session != null)
+                return query_rule(this_rule, session);
+            if (pipelined)
+                return query_rule(this_rule, pipeline_folder + ctr + "/", RunConfig.pipeline_query_threads());
+            RunMetrics.phase(RunMetrics.GRAPH_BUILD, null);
+            if (store != null)
+                create_neo4j_database(path_to_neo4j_database_folder, store, OffHeapTripleStore.rule_predicates(this_rule));
+            else
+                create_neo4j_database(path_to_neo4j_database_folder, collect_materializations_for_rule(this_rule, triple_dict));
+            return query_rule(this_rule, path_to_neo4j_database_folder);
+        };
+        ParallelRuleEvaluator.ResultWriter writer = (ctr, this_rule, metrics) -> {
+            bufferedWriter.write(this_rule.id_print() + "\t" + this_rule.head_coverage + "\t" + this_rule.pca_confidence + "\t" + metrics.get(0) + "\t" + metrics.get(1));
+            // Approximate runs add the confidence bounds of HC and PCA as extra columns.
+            for (int i = 2; i < metrics.size(); ++i)
+                bufferedWriter.write("\t" + metrics.get(i));
+            bufferedWriter.write("\n");
             bufferedWriter.flush();
-            ctr++;
+            String pruned = shared_thresholds != null ?
+                    shared_thresholds.pruned(rule_classes != null ? rule_classes.representative(this_rule) : this_rule) : null;
+            if (pruned != null){
+                pruned_writer.write(this_rule.id_print() + "\t" + pruned + "\n");
+                pruned_writer.flush();
+            }
+            if (checkpoint != null)
+                checkpoint.record(resume_from + ctr + 1);
+        };
+        if (pipelined){
+            // Stores are removed once their row is written; rules reusing an equivalent rule's metrics have none.
+            ParallelRuleEvaluator.ResultWriter write_row = writer;
+            writer = (ctr, this_rule, metrics) -> {
+                write_row.write(ctr, this_rule, metrics);
+                File rule_folder = new File(pipeline_folder + ctr);
+                if (rule_folder.exists())
+                    MoreFiles.deleteRecursively(rule_folder.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+            };
+        }
+        ParallelRuleEvaluator.GroupTask group_task = (ctr, group) -> {
+            System.out.println("\nProcessing rules " + (resume_from + ctr) + "-" + (resume_from + ctr + group.size() - 1) + "/" +
+                    rp.rules.size() + " of head " + group.get(0).head_atom.relationship);
+            return query_rules_for_head(group, session);
+        };
+        if (rule_classes != null){
+            task = rule_classes.deduplicate(task);
+            group_task = rule_classes.deduplicate(group_task);
+            writer = rule_classes.deduplicate(writer);
+        }
+        if (run_metrics != null){
+            run_metrics.index_offset = resume_from;
+            task = run_metrics.instrument(task);
+            group_task = run_metrics.instrument(group_task);
+            writer = run_metrics.instrument(writer);
         }
+        if (pipelined){
+            RulePipeline.RuleStage prepare = (ctr, this_rule) -> {
+                if (rule_classes != null && !rule_classes.is_representative(this_rule))
+                    return;
+                long build_started = System.nanoTime();
+                if (store != null)
+                    create_neo4j_database(pipeline_folder + ctr + "/", store, OffHeapTripleStore.rule_predicates(this_rule));
+                else
+                    create_neo4j_database(pipeline_folder + ctr + "/", collect_materializations_for_rule(this_rule, triple_dict));
+                RunMetrics.run_phase(RunMetrics.GRAPH_BUILD, System.nanoTime() - build_started);
+            };
+            RulePipeline.run(remaining_rules, RunConfig.pipeline_build_threads(), RunConfig.pipeline_query_threads(),
+                    RunConfig.pipeline_queue(), prepare, task, writer);
+        }
+        else if (grouped)
+            ParallelRuleEvaluator.evaluate_groups_in_order(head_groups(remaining_rules), n_threads, group_task, writer);
+        else
+            ParallelRuleEvaluator.evaluate_in_order(remaining_rules, n_threads, task, writer);
         bufferedWriter.close();
+        if (pruned_writer != null)
+            pruned_writer.close();
+        if (incremental != null && resumed)
+            // The counts of the rules finished before the restart are not known, so the next run starts over.
+            System.out.println("Not updating the incremental state of a resumed run");
+        else if (incremental != null){
+            // convert writes next to the snapshot and moves the file into place, so a killed run keeps the previous snapshot.
+            BinaryTripleFile.convert(snapshot_path, materialization_file_path, train_triples_path, valid_triples_path);
+            incremental.write_state(state_path);
+        }
+        if (checkpoint != null)
+            checkpoint.delete();
+        if (session != null){
+            session.record_page_cache();
+            session.close();
+        }
+        if (body_cache != null)
+            System.out.println(body_cache.stats());
+        if (run_metrics != null)
+            run_metrics.write(output_file_path + ".metrics");
     }
 }
\ No newline at end of file
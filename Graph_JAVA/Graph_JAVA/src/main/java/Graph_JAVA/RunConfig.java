@@ -0,0 +1,143 @@
+package Graph_JAVA;
+
+public class RunConfig {
+
+    // Run options are passed as JVM system properties (-Dname=value) so the positional arguments of RuleQuery.main stay unchanged.
+
+    // "neo4j" queries an embedded Neo4j database with Cypher; "traversal" walks the same database through the core API;
+    // "memory" evaluates rules on a CsrGraph.
+    public static String engine(){
+        return System.getProperty("engine", "neo4j");
+    }
+
+    // "per_rule" rebuilds the Neo4j store with only the relations of each rule; "once" imports every triple a single time
+    // and reuses the store across runs while the input files are unchanged.
+    public static String graph_build(){
+        return System.getProperty("graph_build", "per_rule");
+    }
+
+    // Worker threads for rule evaluation; defaults to one per core.
+    public static int threads(){
+        return Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    // Converts the input TSV files to a BinaryTripleFile next to the materialization on first use and memory-maps it afterwards.
+    public static boolean binary_triples(){
+        return Boolean.getBoolean("binary_triples");
+    }
+
+    // Builds the head relation index once per head predicate and scores every rule of that predicate against it. With
+    // the Neo4j engines this needs graph_build=once; the rules of a head are then evaluated and written together.
+    public static boolean group_by_head(){
+        return Boolean.getBoolean("group_by_head");
+    }
+
+    // Memory budget of the cache of evaluated rule bodies shared by equivalent rules, in MB; 0 disables the cache.
+    public static long body_cache_mb(){
+        return Long.getLong("body_cache_mb", 0);
+    }
+
+    // Upper bound for the Neo4j page cache, e.g. "64G" or "1.5G", shared by the stores a pipeline queries at the same
+    // time; by default it is sized from the store on disk.
+    public static String page_cache(){
+        return System.getProperty("page_cache");
+    }
+
+    // Creates Neo4j stores with the parallel batch importer instead of inserting the triples one by one.
+    public static boolean bulk_import(){
+        return Boolean.getBoolean("bulk_import");
+    }
+
+    // Negatives drawn per relation when building test graphs; 0 writes the whole complement.
+    public static long negative_budget(){
+        return Long.getLong("negative_budget", 0);
+    }
+
+    // Also scores the asymmetry rule r(b,a) => NOT r(a,b) of every head relation, in memory, before the mined rules.
+    public static boolean asymmetry(){
+        return Boolean.getBoolean("asymmetry");
+    }
+
+    // Updates the counts of the previous run of the in-memory engine for the relations whose triples changed.
+    public static boolean incremental(){
+        return Boolean.getBoolean("incremental");
+    }
+
+    // Records progress next to the output after every rule, so a failed run can be restarted where it stopped.
+    public static boolean checkpoint(){
+        return Boolean.getBoolean("checkpoint");
+    }
+
+    // Writes per-rule phase timings to <output>.metrics.csv and a latency summary to <output>.metrics.json.
+    public static boolean metrics(){
+        return Boolean.getBoolean("metrics");
+    }
+
+    // Estimates HC and PCA of the in-memory engine from samples, adding their confidence bounds to each output row.
+    // The Neo4j engines always count exactly, so the option is off for them.
+    public static boolean approximate(){
+        return Boolean.getBoolean("approximate") && engine().equals("memory");
+    }
+
+    // Sampling stops once both confidence intervals are at most this wide on either side of the estimate.
+    public static double approximate_error(){
+        return Double.parseDouble(System.getProperty("approximate_error", "0.01"));
+    }
+
+    public static double approximate_confidence(){
+        return Double.parseDouble(System.getProperty("approximate_confidence", "0.95"));
+    }
+
+    // Loads the materialization and dataset triples into an off-heap store instead of boxed triples.
+    public static boolean off_heap(){
+        return Boolean.getBoolean("off_heap");
+    }
+
+    // Rules of the in-memory engine that cannot reach these are pruned before their exact counts are known; 0 disables.
+    public static double min_hc(){
+        return Double.parseDouble(System.getProperty("min_hc", "0"));
+    }
+
+    public static double min_pca(){
+        return Double.parseDouble(System.getProperty("min_pca", "0"));
+    }
+
+    // Prunes the rules that cannot be among the k best PCA of their head relation; 0 disables.
+    public static int top_k(){
+        return Integer.getInteger("top_k", 0);
+    }
+
+    // Scores rules that are the same up to variable renaming and atom order once, writing the metrics to each of them.
+    public static boolean dedup_rules(){
+        return Boolean.getBoolean("dedup_rules");
+    }
+
+    // Overlaps building the per-rule Neo4j stores of the next rules with querying earlier ones and writing their rows.
+    public static boolean pipeline(){
+        return Boolean.getBoolean("pipeline");
+    }
+
+    // Per-rule stores built at the same time by the pipeline.
+    public static int pipeline_build_threads(){
+        return Integer.getInteger("pipeline_build_threads", 2);
+    }
+
+    // Per-rule stores queried at the same time by the pipeline.
+    public static int pipeline_query_threads(){
+        return Integer.getInteger("pipeline_query_threads", 2);
+    }
+
+    // Rules built or queried ahead of the output row being written, which bounds the per-rule stores on disk.
+    public static int pipeline_queue(){
+        return Integer.getInteger("pipeline_queue", 8);
+    }
+
+    // The options that change the rows written for a rule or the rows before them, so a checkpoint is only resumed
+    // under the same ones. Threads, caches and the way stores are built give the same rows and are left out.
+    public static String output_options(){
+        String sampling = approximate() ?
+                "\tapproximate_error=" + approximate_error() + "\tapproximate_confidence=" + approximate_confidence() : "";
+        return "engine=" + engine() + "\tasymmetry=" + asymmetry() + "\tapproximate=" + approximate() + sampling +
+                "\tmin_hc=" + min_hc() + "\tmin_pca=" + min_pca() + "\ttop_k=" + top_k();
+    }
+}
@@ -0,0 +1,309 @@
+package Graph_JAVA;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class RunMetrics {
+
+    // Time spent per phase of every rule, with the distinct body pairs found, the head pairs checked against the body
+    // when the rule is scored by ThresholdEvaluator, and the bytes allocated while evaluating it, plus run-level
+    // phases such as building the graph. The query code marks phase boundaries with RunMetrics.phase, which is attributed
+    // to the rule being evaluated on the calling thread, so rules may be evaluated concurrently. Every phase is also a
+    // JFR event, recorded whenever a flight recording is running, e.g. with -XX:StartFlightRecording.
+    public static final String GRAPH_BUILD = "graph_build";
+    public static final String BODY_QUERY = "body_query";
+    public static final String HEAD_QUERY = "head_query";
+    public static final String PCA = "pca";
+    public static final String OUTPUT = "output";
+    static final String[] PHASES = {GRAPH_BUILD, BODY_QUERY, HEAD_QUERY, PCA, OUTPUT};
+
+    static volatile RunMetrics active = null;
+    static final ThreadLocal<RuleTrace> current = new ThreadLocal<>();
+
+    Map<String, Histogram> histograms = new LinkedHashMap<>();
+    Histogram rule_histogram = new Histogram();
+    Map<Integer, RuleTrace> traces = new ConcurrentHashMap<>();
+    Map<String, Long> run_phases = new LinkedHashMap<>();
+    Map<String, Long> counters = new LinkedHashMap<>();
+    long started = System.nanoTime();
+    // Added to the rule indexes handed to instrument, e.g. the rules skipped when resuming from a checkpoint.
+    int index_offset = 0;
+
+    private RunMetrics(){
+        for (String phase: PHASES)
+            this.histograms.put(phase, new Histogram());
+    }
+
+    public static RunMetrics enable(){
+        active = new RunMetrics();
+        return active;
+    }
+
+    public static void phase(String phase, String message){
+        /**
+         Ends the current phase of the rule evaluated on this thread and starts the next one.
+         @param message printed with a timestamp like the other progress lines, or null
+         */
+        if (message != null)
+            System.out.println(new Date() + " -- " + message);
+        RuleTrace trace = current.get();
+        if (trace != null)
+            trace.switch_to(phase);
+    }
+
+    public static void rows(long rows){
+        RuleTrace trace = current.get();
+        if (trace != null)
+            trace.rows += rows;
+    }
+
+    public static void checked(long pairs){
+        RuleTrace trace = current.get();
+        if (trace != null)
+            trace.checked += pairs;
+    }
+
+    public static void run_phase(String phase, long nanos){
+        RunMetrics metrics = active;
+        if (metrics == null)
+            return;
+        synchronized (metrics){
+            metrics.run_phases.merge(phase, nanos, Long::sum);
+        }
+    }
+
+    public static void counter(String name, long value){
+        RunMetrics metrics = active;
+        if (metrics == null)
+            return;
+        synchronized (metrics){
+            metrics.counters.merge(name, value, Long::sum);
+        }
+    }
+
+    public ParallelRuleEvaluator.RuleTask instrument(ParallelRuleEvaluator.RuleTask task){
+        return (index, rule) -> traced(index, rule.id_print(), () -> task.evaluate(index, rule));
+    }
+
+    public ParallelRuleEvaluator.GroupTask instrument(ParallelRuleEvaluator.GroupTask task){
+        /**
+         Traces a group as one row under the index of its first rule, since its rules share the head query and a transaction.
+         */
+        return (index, group) -> traced(index, "head " + group.get(0).head_atom.relationship + ", " + group.size() + " rules",
+                () -> task.evaluate(index, group));
+    }
+
+    private <T> T traced(int index, String label, Callable<T> work) throws Exception {
+        RuleTrace trace = new RuleTrace(this.index_offset + index, label);
+        current.set(trace);
+        try {
+            return work.call();
+        } finally {
+            current.remove();
+            trace.finish();
+            this.traces.put(trace.index, trace);
+            this.rule_histogram.add(trace.total_nanos);
+            for (int p = 0; p < PHASES.length; ++p)
+                if (trace.phase_nanos[p] > 0)
+                    this.histograms.get(PHASES[p]).add(trace.phase_nanos[p]);
+        }
+    }
+
+    public ParallelRuleEvaluator.ResultWriter instrument(ParallelRuleEvaluator.ResultWriter writer){
+        return (index, rule, metrics) -> {
+            PhaseEvent event = new PhaseEvent(this.index_offset + index, rule.id_print(), OUTPUT);
+            event.begin();
+            long began = System.nanoTime();
+            writer.write(index, rule, metrics);
+            long nanos = System.nanoTime() - began;
+            event.commit();
+            this.histograms.get(OUTPUT).add(nanos);
+            RuleTrace trace = this.traces.get(this.index_offset + index);
+            if (trace != null)
+                trace.phase_nanos[phase_index(OUTPUT)] += nanos;
+        };
+    }
+
+    static int phase_index(String phase){
+        for (int p = 0; p < PHASES.length; ++p)
+            if (PHASES[p].equals(phase))
+                return p;
+        throw new IllegalArgumentException("Unknown phase " + phase);
+    }
+
+    public void write(String path_prefix) throws IOException {
+        /**
+         Writes one CSV row per rule to path_prefix.csv and the run summary with per-phase latency percentiles to path_prefix.json.
+         */
+        List<RuleTrace> rules = new ArrayList<>(this.traces.values());
+        rules.sort((x, y) -> Integer.compare(x.index, y.index));
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path_prefix + ".csv"))){
+            writer.write("index,rule");
+            for (String phase: PHASES)
+                writer.write("," + phase + "_ms");
+            writer.write(",total_ms,body_rows,head_pairs_checked,allocated_bytes\n");
+            for (RuleTrace trace: rules){
+                writer.write(trace.index + ",\"" + trace.rule.replace("\"", "\"\"") + "\"");
+                for (long nanos: trace.phase_nanos)
+                    writer.write("," + millis(nanos));
+                writer.write("," + millis(trace.total_nanos) + "," + trace.rows + "," + trace.checked + "," + trace.allocated_bytes + "\n");
+            }
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"wall_ms\": ").append(millis(System.nanoTime() - this.started)).append(",\n  \"rules\": ").append(rules.size());
+        json.append(",\n  \"run_phases_ms\": {");
+        String separator = "";
+        synchronized (this){
+            for (Map.Entry<String, Long> entry: this.run_phases.entrySet()){
+                json.append(separator).append("\"").append(entry.getKey()).append("\": ").append(millis(entry.getValue()));
+                separator = ", ";
+            }
+            json.append("},\n  \"counters\": {");
+            separator = "";
+            for (Map.Entry<String, Long> entry: this.counters.entrySet()){
+                json.append(separator).append("\"").append(entry.getKey()).append("\": ").append(entry.getValue());
+                separator = ", ";
+            }
+        }
+        json.append("},\n  \"rule_latency\": ").append(this.rule_histogram.to_json());
+        json.append(",\n  \"phase_latency\": {");
+        separator = "\n    ";
+        for (Map.Entry<String, Histogram> entry: this.histograms.entrySet()){
+            json.append(separator).append("\"").append(entry.getKey()).append("\": ").append(entry.getValue().to_json());
+            separator = ",\n    ";
+        }
+        json.append("\n  }\n}\n");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path_prefix + ".json"))){
+            writer.write(json.toString());
+        }
+    }
+
+    static double millis(long nanos){
+        return nanos / 1e6;
+    }
+
+    static long allocated_bytes(){
+        // HotSpot exposes per-thread allocation counters; other JVMs report nothing.
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    static class RuleTrace {
+
+        int index;
+        String rule;
+        long[] phase_nanos = new long[PHASES.length];
+        long total_nanos;
+        long rows = 0;
+        long checked = 0;
+        long allocated_bytes;
+        long started = System.nanoTime();
+        long allocated_at_start = allocated_bytes();
+
+        int phase = -1;
+        long phase_started;
+        PhaseEvent event;
+
+        RuleTrace(int index, String rule){
+            this.index = index;
+            this.rule = rule;
+        }
+
+        void switch_to(String next){
+            end_phase();
+            this.phase = phase_index(next);
+            this.phase_started = System.nanoTime();
+            this.event = new PhaseEvent(this.index, this.rule, next);
+            this.event.begin();
+        }
+
+        private void end_phase(){
+            if (this.phase < 0)
+                return;
+            this.phase_nanos[this.phase] += System.nanoTime() - this.phase_started;
+            this.event.rows = this.rows;
+            this.event.commit();
+            this.phase = -1;
+        }
+
+        void finish(){
+            end_phase();
+            this.total_nanos = System.nanoTime() - this.started;
+            long allocated = allocated_bytes();
+            this.allocated_bytes = allocated < 0 ? -1 : allocated - this.allocated_at_start;
+        }
+    }
+
+    static class Histogram {
+
+        // Bucket b counts latencies in [2^b, 2^(b+1)) nanoseconds, so percentiles are exact to within a factor of two.
+        AtomicLongArray buckets = new AtomicLongArray(64);
+        AtomicLongArray totals = new AtomicLongArray(3);
+
+        void add(long nanos){
+            this.buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+            this.totals.incrementAndGet(0);
+            this.totals.addAndGet(1, nanos);
+            this.totals.accumulateAndGet(2, nanos, Math::max);
+        }
+
+        long percentile(double q){
+            long count = this.totals.get(0);
+            long rank = (long) Math.ceil(q * count), seen = 0;
+            for (int b = 0; b < 64; ++b){
+                seen += this.buckets.get(b);
+                if (seen >= rank && seen > 0)
+                    return Math.min(this.totals.get(2), (1L << Math.min(62, b + 1)) - 1);
+            }
+            return 0;
+        }
+
+        String to_json(){
+            return "{\"count\": " + this.totals.get(0) + ", \"total_ms\": " + millis(this.totals.get(1)) +
+                    ", \"p50_ms\": " + millis(percentile(0.5)) + ", \"p90_ms\": " + millis(percentile(0.9)) +
+                    ", \"p99_ms\": " + millis(percentile(0.99)) + ", \"max_ms\": " + millis(this.totals.get(2)) + "}";
+        }
+    }
+
+    @Name("Graph_JAVA.RulePhase")
+    @Label("Rule Phase")
+    @Category("Rule Evaluation")
+    static class PhaseEvent extends Event {
+
+        @Label("Rule Index")
+        int rule_index;
+
+        @Label("Rule")
+        String rule;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Body Rows")
+        long rows;
+
+        PhaseEvent(int rule_index, String rule, String phase){
+            this.rule_index = rule_index;
+            this.rule = rule;
+            this.phase = phase;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package Graph_JAVA;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+public class ThresholdEvaluator {
+
+    // Scores rules in memory only as far as needed to tell whether they can reach a minimum HC and PCA, or the top k PCA
+    // of their head relation. The support is counted by checking the head pairs one by one against the body, so after
+    // i of n pairs with h in the body, HC is at most (h + n - i) / n. The PCA denominator is then accumulated over the
+    // functional variable values of the head, so once it reaches d, PCA is at most support / d. A rule is pruned as soon
+    // as a bound falls below its threshold; the counts of the rules that are not pruned are the exact counts of
+    // HeadIndex.count. With top k, a head's threshold is the k-th best PCA of its rules evaluated so far, so a pruned
+    // rule can never be among the final top k.
+    double min_hc;
+    double min_pca;
+    int top_k;
+    Map<String, PriorityQueue<Double>> best_pca = new HashMap<>();
+    // Pruned rules with the phase that pruned them and the bounds reached.
+    Map<Rule, String> pruned = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    public ThresholdEvaluator(double min_hc, double min_pca, int top_k){
+        this.min_hc = min_hc;
+        this.min_pca = min_pca;
+        this.top_k = top_k;
+    }
+
+    public static ThresholdEvaluator from_config(){
+        /**
+         @return an evaluator for the configured thresholds, or null if none is set
+         */
+        if (RunConfig.min_hc() <= 0 && RunConfig.min_pca() <= 0 && RunConfig.top_k() <= 0)
+            return null;
+        return new ThresholdEvaluator(RunConfig.min_hc(), RunConfig.min_pca(), RunConfig.top_k());
+    }
+
+    public ArrayList<Double> query_rule(Rule rule_to_query, CsrGraph graph){
+        /**
+         @param rule_to_query The rule to be queried.
+         @param graph The graph holding the materialized triples.
+         @return the HC and PCA of the rule, or two NaN values if it was pruned
+         */
+        String relation = rule_to_query.head_atom.relationship;
+        CsrRelation head = graph.relation(relation);
+        LeapfrogJoin body = LeapfrogJoin.compile(rule_to_query.body_atoms, graph, rule_to_query.functional_variable);
+        boolean fv_is_subject = InMemoryRuleQuery.variable(rule_to_query.head_atom.variable1).equals(rule_to_query.functional_variable);
+        long head_size = head.edge_count();
+
+        RunMetrics.phase(RunMetrics.HEAD_QUERY, "Counting support");
+        double min_support = this.min_hc * head_size;
+        long support = 0, remaining = head_size;
+        for (int k = 0; k < head.out_keys.length; ++k){
+            for (int e = head.out_offsets[k]; e < head.out_offsets[k + 1]; ++e){
+                int s = head.out_keys[k], o = head.out_targets[e];
+                if (fv_is_subject ? body.exists(s, o) : body.exists(o, s))
+                    support++;
+                remaining--;
+                if (support + remaining < min_support){
+                    RunMetrics.checked(head_size - remaining);
+                    return prune(rule_to_query, "hc", (support + remaining) * 1.0 / head_size, Double.NaN);
+                }
+            }
+        }
+        RunMetrics.checked(head_size);
+
+        RunMetrics.phase(RunMetrics.PCA, "Computing PCA");
+        double min_pca = pca_threshold(relation);
+        int[] head_fvs = fv_is_subject ? head.out_keys : head.in_keys;
+        long[] denominator = {0};
+        for (int fv: head_fvs){
+            body.for_each_nfv(fv, (f, nfv) -> denominator[0]++);
+            if (support < min_pca * denominator[0])
+                return prune(rule_to_query, "pca", support * 1.0 / head_size, support * 1.0 / denominator[0]);
+        }
+
+        System.out.println("\tHead size: " + head_size);
+        System.out.println("\tSupport size: " + support);
+        System.out.println("\tPCA size: " + denominator[0]);
+        ArrayList<Double> metrics = HeadIndex.metrics(new long[]{support, head_size, denominator[0]});
+        if (this.top_k > 0)
+            offer(relation, metrics.get(1));
+        return metrics;
+    }
+
+    private ArrayList<Double> prune(Rule rule, String phase, double hc_bound, double pca_bound){
+        System.out.println("\tPruned by " + phase + ", HC at most " + hc_bound + ", PCA at most " + pca_bound);
+        RunMetrics.counter("pruned_rules", 1);
+        this.pruned.put(rule, phase + "\t" + hc_bound + "\t" + pca_bound);
+        ArrayList<Double> metrics = new ArrayList<>();
+        metrics.add(Double.NaN);
+        metrics.add(Double.NaN);
+        return metrics;
+    }
+
+    public String pruned(Rule rule){
+        /**
+         @return the phase and bounds of a pruned rule, or null if the rule was not pruned
+         */
+        return this.pruned.get(rule);
+    }
+
+    private synchronized double pca_threshold(String relation){
+        PriorityQueue<Double> best = this.best_pca.get(relation);
+        if (best == null || best.size() < this.top_k)
+            return this.min_pca;
+        return Math.max(this.min_pca, best.peek());
+    }
+
+    private synchronized void offer(String relation, double pca){
+        if (Double.isNaN(pca))
+            return;
+        PriorityQueue<Double> best = this.best_pca.computeIfAbsent(relation, r -> new PriorityQueue<>());
+        best.add(pca);
+        if (best.size() > this.top_k)
+            best.poll();
+    }
+}
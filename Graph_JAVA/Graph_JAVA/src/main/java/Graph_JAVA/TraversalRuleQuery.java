@@ -0,0 +1,185 @@
+package Graph_JAVA;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TraversalRuleQuery {
+
+    // Evaluates rules on a Neo4j store through the core API instead of Cypher, so no query is parsed or planned and
+    // node ids are read as primitives. The body atoms are ordered so that each one after the first shares a bound
+    // variable, starting from an atom of the functional variable, and bindings are found depth first: the first atom
+    // scans its relationship type, later atoms expand the relationships of a bound node. Like the separate MATCH clauses
+    // of RuleQuery.get_body_pairs, atoms may bind the same relationship.
+    static final Map<String, RelationshipType> TYPES = new ConcurrentHashMap<>();
+
+    static RelationshipType type(String relation){
+        return TYPES.computeIfAbsent(relation, RelationshipType::withName);
+    }
+
+    public static ArrayList<Double> query_rule(Rule rule_to_query, Neo4jSession session){
+        /**
+         Same as RuleQuery.query_rule on an open session, without Cypher.
+         @param rule_to_query The rule to be queried.
+         @param session the open database holding every relation of the rule
+         @return An ArrayList of two Double values, representing the HC and PCA respectively.
+         */
+        return session.read(tx -> {
+            RunMetrics.phase(RunMetrics.BODY_QUERY, "Traversing body");
+            LongHashSet bodyPairs = get_body_pairs(tx, rule_to_query);
+
+            RunMetrics.phase(RunMetrics.HEAD_QUERY, "Scanning head relationships");
+            HeadIndex head_index = get_head_index(tx, rule_to_query.head_atom.relationship);
+
+            RunMetrics.phase(RunMetrics.PCA, "Computing PCA");
+            return head_index.score(rule_to_query, bodyPairs);
+        });
+    }
+
+    public static HeadIndex get_head_index(Transaction tx, String relation){
+        HeadIndex head_index = new HeadIndex();
+        try (ResourceIterator<Relationship> relationships = tx.findRelationships(type(relation))){
+            while (relationships.hasNext()){
+                Relationship relationship = relationships.next();
+                head_index.add((int) relationship.getStartNodeId(), (int) relationship.getEndNodeId());
+            }
+        }
+        return head_index;
+    }
+
+    public static LongHashSet get_body_pairs(Transaction tx, Rule rule_to_query){
+        /**
+         @return the distinct bindings of the body as (functional variable, non functional variable) pairs packed with CsrRelation.pack
+         */
+        Traversal traversal = new Traversal(tx, rule_to_query);
+        traversal.bind(0);
+        return traversal.pairs;
+    }
+
+    private static class Traversal {
+
+        Transaction tx;
+        // Atoms in traversal order, with the variable index of their subject and object and their relationship type.
+        int[] subjects;
+        int[] objects;
+        RelationshipType[] types;
+        long[] values;
+        boolean[] bound;
+        Node[] nodes;
+        int fv;
+        int nfv;
+        LongHashSet pairs = new LongHashSet();
+
+        Traversal(Transaction tx, Rule rule){
+            this.tx = tx;
+            Map<String, Integer> variables = new HashMap<>();
+            this.fv = index(variables, rule.functional_variable);
+            this.nfv = index(variables, rule.functional_variable.equals("a") ? "b" : "a");
+
+            List<Atom> remaining = new ArrayList<>(rule.body_atoms);
+            List<Atom> order = new ArrayList<>();
+            boolean[] seen = new boolean[2 * remaining.size() + 2];
+            seen[this.fv] = true;
+            while (!remaining.isEmpty()){
+                // The next atom shares a variable with the atoms before it when the body is connected.
+                Atom next = remaining.get(0);
+                for (Atom atom: remaining){
+                    int x = index(variables, InMemoryRuleQuery.variable(atom.variable1)), y = index(variables, InMemoryRuleQuery.variable(atom.variable2));
+                    if (seen[x] || seen[y]){
+                        next = atom;
+                        break;
+                    }
+                }
+                remaining.remove(next);
+                order.add(next);
+                seen[index(variables, InMemoryRuleQuery.variable(next.variable1))] = true;
+                seen[index(variables, InMemoryRuleQuery.variable(next.variable2))] = true;
+            }
+
+            this.subjects = new int[order.size()];
+            this.objects = new int[order.size()];
+            this.types = new RelationshipType[order.size()];
+            for (int i = 0; i < order.size(); ++i){
+                Atom atom = order.get(i);
+                this.subjects[i] = index(variables, InMemoryRuleQuery.variable(atom.variable1));
+                this.objects[i] = index(variables, InMemoryRuleQuery.variable(atom.variable2));
+                this.types[i] = type(atom.relationship);
+            }
+            this.values = new long[variables.size()];
+            this.bound = new boolean[variables.size()];
+            this.nodes = new Node[variables.size()];
+        }
+
+        private static int index(Map<String, Integer> variables, String variable){
+            return variables.computeIfAbsent(variable, v -> variables.size());
+        }
+
+        void bind(int atom){
+            if (atom == this.subjects.length){
+                if (this.bound[this.fv] && this.bound[this.nfv])
+                    this.pairs.add(CsrRelation.pack((int) this.values[this.fv], (int) this.values[this.nfv]));
+                return;
+            }
+
+            int s = this.subjects[atom], o = this.objects[atom];
+            if (this.bound[s]){
+                for (Relationship relationship: node(s).getRelationships(Direction.OUTGOING, this.types[atom]))
+                    extend(atom, o, relationship.getEndNodeId());
+            }
+            else if (this.bound[o]){
+                for (Relationship relationship: node(o).getRelationships(Direction.INCOMING, this.types[atom]))
+                    extend(atom, s, relationship.getStartNodeId());
+            }
+            else{
+                try (ResourceIterator<Relationship> relationships = this.tx.findRelationships(this.types[atom])){
+                    while (relationships.hasNext()){
+                        Relationship relationship = relationships.next();
+                        long start = relationship.getStartNodeId(), end = relationship.getEndNodeId();
+                        if (s == o && start != end)
+                            continue;
+                        set(s, start);
+                        extend(atom, o, end);
+                        unset(s);
+                    }
+                }
+            }
+        }
+
+        private void extend(int atom, int variable, long value){
+            // Binds variable to value for the atoms after atom, or checks it against its binding.
+            if (this.bound[variable]){
+                if (this.values[variable] == value)
+                    bind(atom + 1);
+                return;
+            }
+            set(variable, value);
+            bind(atom + 1);
+            unset(variable);
+        }
+
+        private void set(int variable, long value){
+            this.values[variable] = value;
+            this.bound[variable] = true;
+        }
+
+        private void unset(int variable){
+            this.bound[variable] = false;
+            this.nodes[variable] = null;
+        }
+
+        private Node node(int variable){
+            if (this.nodes[variable] == null)
+                this.nodes[variable] = this.tx.getNodeById(this.values[variable]);
+            return this.nodes[variable];
+        }
+    }
+}